@@ -0,0 +1,58 @@
+package gestisimal.bench;
+
+import gestisimal.business.PreviouslyEnteredArticleException;
+import gestisimal.business.Warehouse;
+
+/**
+ * Catálogos sintéticos para las pruebas de rendimiento
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+final class Catalogue {
+
+  /**
+   * Número de marcas distintas del catálogo
+   */
+  private static final int BRANDS = 97;
+
+  private Catalogue() {}
+
+  /**
+   * Llena un almacén con artículos sintéticos
+   *
+   * @param warehouse Almacén vacío
+   * @param size Número de artículos
+   * @return Códigos de los artículos añadidos, en orden
+   * @throws PreviouslyEnteredArticleException
+   */
+  static int[] fill(Warehouse warehouse, int size) throws PreviouslyEnteredArticleException {
+    int[] codes = new int[size];
+    for (int i = 0; i < size; i++) {
+      warehouse.add(name(i), brand(i), 1000 + i % 500, 1 + i % 100 / 10.0, 2 + i % 100 / 5.0,
+          i % 20, 5000);
+      codes[i] = warehouse.findByNameAndBrand(name(i), brand(i)).getCode();
+    }
+    return codes;
+  }
+
+  /**
+   * Nombre del artículo i-ésimo del catálogo
+   *
+   * @param i Posición en el catálogo
+   * @return Nombre
+   */
+  static String name(int i) {
+    return "Articulo " + i;
+  }
+
+  /**
+   * Marca del artículo i-ésimo del catálogo
+   *
+   * @param i Posición en el catálogo
+   * @return Marca
+   */
+  static String brand(int i) {
+    return "Marca " + i % BRANDS;
+  }
+}
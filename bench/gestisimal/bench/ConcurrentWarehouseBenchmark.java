@@ -0,0 +1,98 @@
+package gestisimal.bench;
+
+import gestisimal.business.ConcurrentWarehouse;
+import gestisimal.business.PreviouslyEnteredArticleException;
+import gestisimal.business.StockException;
+import gestisimal.business.WarehouseArticleNotExistsException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendimiento de {@link ConcurrentWarehouse} con varios hilos sobre el mismo almacén: consultas
+ * y movimientos de stock con todos los hilos disponibles, y una mezcla de lectores, movimientos
+ * y modificaciones
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentWarehouseBenchmark {
+
+  /**
+   * Número de artículos del catálogo
+   */
+  @Param({"1000", "10000", "100000", "1000000"})
+  public int size;
+
+  private ConcurrentWarehouse warehouse;
+  private int[] codes;
+
+  @Setup
+  public void fill() throws PreviouslyEnteredArticleException {
+    warehouse = new ConcurrentWarehouse();
+    codes = Catalogue.fill(warehouse, size);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public Object get() {
+    return warehouse.get(randomCode());
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public void stock() throws WarehouseArticleNotExistsException, StockException {
+    int code = randomCode();
+    warehouse.increaseStock(code, 1);
+    warehouse.decreaseStock(code, 1);
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(4)
+  public Object mixedGet() {
+    return warehouse.get(randomCode());
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(2)
+  public void mixedStock() throws WarehouseArticleNotExistsException, StockException {
+    int code = randomCode();
+    warehouse.increaseStock(code, 1);
+    warehouse.decreaseStock(code, 1);
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(1)
+  public void mixedModify()
+      throws WarehouseArticleNotExistsException, PreviouslyEnteredArticleException {
+    int i = ThreadLocalRandom.current().nextInt(size);
+    warehouse.modify(codes[i], Catalogue.name(i), Catalogue.brand(i), 1000 + i % 500, 1, 2, 0,
+        5000);
+  }
+
+  private int randomCode() {
+    return codes[ThreadLocalRandom.current().nextInt(size)];
+  }
+}
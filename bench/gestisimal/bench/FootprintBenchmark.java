@@ -0,0 +1,79 @@
+package gestisimal.bench;
+
+import gestisimal.business.CompactWarehouse;
+import gestisimal.business.PreviouslyEnteredArticleException;
+import gestisimal.business.Warehouse;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Memoria que ocupa cada artículo en un {@link Warehouse} normal y en un
+ * {@link CompactWarehouse}. Cada medida llena un almacén nuevo y anota en el contador
+ * {@code bytesPerArticle} cuánto ha crecido el heap ocupado tras recoger la basura, dividido
+ * entre los artículos. El tiempo medido incluye esas recogidas, así que lo que interesa aquí es
+ * el contador; para el tiempo de las operaciones está {@link WarehouseBenchmark}.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FootprintBenchmark {
+
+  /**
+   * Número de artículos del catálogo
+   */
+  @Param({"100000", "1000000"})
+  public int size;
+
+  /**
+   * Almacenamiento de los artículos
+   */
+  @Param({"table", "compact"})
+  public String store;
+
+  /**
+   * Memoria ocupada por artículo en la última medida
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Footprint {
+    public long bytesPerArticle;
+  }
+
+  @Benchmark
+  public Warehouse fill(Footprint footprint) throws PreviouslyEnteredArticleException {
+    long before = usedHeap();
+    Warehouse warehouse = store.equals("compact") ? new CompactWarehouse() : new Warehouse();
+    Catalogue.fill(warehouse, size);
+    footprint.bytesPerArticle = (usedHeap() - before) / size;
+    return warehouse;
+  }
+
+  /**
+   * Devuelve el heap ocupado después de recoger la basura
+   */
+  private static long usedHeap() {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 3; i++) {
+      memory.gc();
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+}
@@ -0,0 +1,89 @@
+package gestisimal.bench;
+
+import gestisimal.business.PreviouslyEnteredArticleException;
+import gestisimal.business.Warehouse;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+/**
+ * Carga de ficheros XML y JSON grandes en paralelo frente a la carga secuencial, que se fuerza
+ * con la propiedad {@code gestisimal.parallelLoad=false}. Los catálogos son lo bastante grandes
+ * para pasar del tamaño mínimo de la carga en paralelo.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParallelLoadBenchmark {
+
+  /**
+   * Número de artículos del catálogo
+   */
+  @Param({"100000", "1000000"})
+  public int size;
+
+  /**
+   * Formato del fichero
+   */
+  @Param({"xml", "json"})
+  public String format;
+
+  /**
+   * Si se carga en paralelo
+   */
+  @Param({"true", "false"})
+  public boolean parallel;
+
+  private Path directory;
+  private String saved;
+
+  @Setup
+  public void save() throws PreviouslyEnteredArticleException, IOException,
+      ParserConfigurationException, TransformerException {
+    Warehouse warehouse = new Warehouse();
+    Catalogue.fill(warehouse, size);
+    directory = Files.createTempDirectory("gestisimal-bench");
+    saved = directory.resolve("almacen." + format).toString();
+    warehouse.saveFile(saved);
+    System.setProperty("gestisimal.parallelLoad", Boolean.toString(parallel));
+  }
+
+  @TearDown
+  public void clean() throws IOException {
+    System.clearProperty("gestisimal.parallelLoad");
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Benchmark
+  public Warehouse load() throws IOException, ParserConfigurationException, SAXException {
+    return new Warehouse(saved);
+  }
+}
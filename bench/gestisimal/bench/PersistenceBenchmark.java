@@ -0,0 +1,88 @@
+package gestisimal.bench;
+
+import gestisimal.business.PreviouslyEnteredArticleException;
+import gestisimal.business.Warehouse;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+/**
+ * Rendimiento de guardar y cargar el almacén en XML, JSON y en la copia binaria, para
+ * catálogos de mil a un millón de artículos
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PersistenceBenchmark {
+
+  /**
+   * Número de artículos del catálogo
+   */
+  @Param({"1000", "10000", "100000", "1000000"})
+  public int size;
+
+  /**
+   * Formato del fichero
+   */
+  @Param({"xml", "json", "bin"})
+  public String format;
+
+  private Warehouse warehouse;
+  private Path directory;
+  private String saved;
+  private String target;
+
+  @Setup
+  public void fill() throws PreviouslyEnteredArticleException, IOException,
+      ParserConfigurationException, TransformerException {
+    warehouse = new Warehouse();
+    Catalogue.fill(warehouse, size);
+    directory = Files.createTempDirectory("gestisimal-bench");
+    saved = directory.resolve("almacen." + format).toString();
+    target = directory.resolve("copia." + format).toString();
+    warehouse.saveFile(saved);
+  }
+
+  @TearDown
+  public void clean() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Benchmark
+  public void save() throws ParserConfigurationException, IOException, TransformerException {
+    warehouse.saveFile(target);
+  }
+
+  @Benchmark
+  public Warehouse load() throws IOException, ParserConfigurationException, SAXException {
+    return new Warehouse(saved);
+  }
+}
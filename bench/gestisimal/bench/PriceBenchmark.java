@@ -0,0 +1,143 @@
+package gestisimal.bench;
+
+import gestisimal.business.Article;
+import gestisimal.business.Cents;
+import gestisimal.business.PreviouslyEnteredArticleException;
+import gestisimal.business.Warehouse;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coste de sumar, escribir y leer precios como {@code double} y como céntimos en un
+ * {@code long} con {@link Cents}. Cada medida recorre todos los precios del catálogo: las sumas
+ * de unidades por precio sobre arrays y sobre los artículos de un {@link Warehouse}, la
+ * escritura en un {@link StringBuilder} que se reutiliza y la lectura desde el texto que
+ * escribe {@link Double#toString(double)}. Todos los precios tienen céntimos exactos.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PriceBenchmark {
+
+  /**
+   * Número de precios del catálogo
+   */
+  @Param({"1000", "1000000"})
+  public int size;
+
+  private int[] units;
+  private double[] prices;
+  private long[] cents;
+  private String[] texts;
+  private List<Article> articles;
+  private final StringBuilder out = new StringBuilder(32);
+
+  @Setup
+  public void fill() throws PreviouslyEnteredArticleException {
+    units = new int[size];
+    prices = new double[size];
+    cents = new long[size];
+    texts = new String[size];
+    Warehouse warehouse = new Warehouse();
+    for (int i = 0; i < size; i++) {
+      units[i] = 1000 + i % 500;
+      cents[i] = 100 + i % 100_000;
+      prices[i] = Cents.toDouble(cents[i]);
+      texts[i] = Double.toString(prices[i]);
+      warehouse.add(Catalogue.name(i), Catalogue.brand(i), units[i], prices[i], 2 * prices[i]);
+    }
+    articles = warehouse.stream().collect(Collectors.toList());
+  }
+
+  @Benchmark
+  public double sumDouble() {
+    double total = 0;
+    for (int i = 0; i < size; i++) {
+      total += units[i] * prices[i];
+    }
+    return total;
+  }
+
+  @Benchmark
+  public long sumCents() {
+    long total = 0;
+    for (int i = 0; i < size; i++) {
+      total += units[i] * cents[i];
+    }
+    return total;
+  }
+
+  @Benchmark
+  public double sumArticlesDouble() {
+    double total = 0;
+    for (Article article : articles) {
+      total += article.getNumberUnits() * article.getPurchasePrice();
+    }
+    return total;
+  }
+
+  @Benchmark
+  public long sumArticlesCents() {
+    long total = 0;
+    for (Article article : articles) {
+      total += article.getNumberUnits() * article.getPurchaseCents();
+    }
+    return total;
+  }
+
+  @Benchmark
+  public int formatDouble() {
+    int length = 0;
+    for (int i = 0; i < size; i++) {
+      out.setLength(0);
+      length += out.append(prices[i]).length();
+    }
+    return length;
+  }
+
+  @Benchmark
+  public int formatCents() {
+    int length = 0;
+    for (int i = 0; i < size; i++) {
+      out.setLength(0);
+      length += Cents.append(out, cents[i]).length();
+    }
+    return length;
+  }
+
+  @Benchmark
+  public double parseDouble() {
+    double total = 0;
+    for (int i = 0; i < size; i++) {
+      total += Double.parseDouble(texts[i]);
+    }
+    return total;
+  }
+
+  @Benchmark
+  public long parseCents() {
+    long total = 0;
+    for (int i = 0; i < size; i++) {
+      total += Cents.parse(texts[i]);
+    }
+    return total;
+  }
+}
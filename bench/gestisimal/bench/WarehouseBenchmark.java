@@ -0,0 +1,143 @@
+package gestisimal.bench;
+
+import gestisimal.business.PreviouslyEnteredArticleException;
+import gestisimal.business.StockException;
+import gestisimal.business.Warehouse;
+import gestisimal.business.WarehouseArticleNotExistsException;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendimiento de las operaciones de {@link Warehouse} en un solo hilo, para catálogos de mil a
+ * un millón de artículos
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WarehouseBenchmark {
+
+  /**
+   * Número de artículos del catálogo
+   */
+  @Param({"1000", "10000", "100000", "1000000"})
+  public int size;
+
+  private Warehouse warehouse;
+  private int[] codes;
+  private int added;
+  /**
+   * Destino del listado, que se reutiliza entre llamadas
+   */
+  private final StringBuilder sink = new StringBuilder();
+
+  /**
+   * Llena el almacén antes de cada iteración, para que las altas y bajas de la anterior no
+   * cambien su tamaño
+   *
+   * @throws PreviouslyEnteredArticleException
+   */
+  @Setup(Level.Iteration)
+  public void fill() throws PreviouslyEnteredArticleException {
+    warehouse = new Warehouse();
+    codes = Catalogue.fill(warehouse, size);
+    added = 0;
+  }
+
+  @Benchmark
+  public void add() throws PreviouslyEnteredArticleException {
+    int i = size + added++;
+    warehouse.add(Catalogue.name(i), Catalogue.brand(i), 10, 1, 2, 0, 100);
+  }
+
+  @Benchmark
+  public boolean addDuplicate() {
+    int i = ThreadLocalRandom.current().nextInt(size);
+    try {
+      warehouse.add(Catalogue.name(i), Catalogue.brand(i), 10, 1, 2, 0, 100);
+      return true;
+    } catch (PreviouslyEnteredArticleException e) {
+      return false;
+    }
+  }
+
+  @Benchmark
+  public Object get() {
+    return warehouse.get(randomCode());
+  }
+
+  @Benchmark
+  public Object findByNameAndBrand() {
+    int i = ThreadLocalRandom.current().nextInt(size);
+    return warehouse.findByNameAndBrand(Catalogue.name(i), Catalogue.brand(i));
+  }
+
+  @Benchmark
+  public void increaseStock() throws WarehouseArticleNotExistsException {
+    warehouse.increaseStock(randomCode(), 1);
+  }
+
+  @Benchmark
+  public void decreaseStock() throws WarehouseArticleNotExistsException, StockException {
+    int code = randomCode();
+    warehouse.increaseStock(code, 1);
+    warehouse.decreaseStock(code, 1);
+  }
+
+  @Benchmark
+  public void modify()
+      throws WarehouseArticleNotExistsException, PreviouslyEnteredArticleException {
+    int i = ThreadLocalRandom.current().nextInt(size);
+    warehouse.modify(codes[i], Catalogue.name(i), Catalogue.brand(i), 1000 + added++ % 500, 1,
+        2, 0, 5000);
+  }
+
+  /**
+   * Borra un artículo y lo vuelve a añadir, para que el catálogo no se vacíe
+   */
+  @Benchmark
+  public void remove()
+      throws WarehouseArticleNotExistsException, PreviouslyEnteredArticleException {
+    int i = ThreadLocalRandom.current().nextInt(size);
+    warehouse.remove(codes[i]);
+    warehouse.add(Catalogue.name(i), Catalogue.brand(i), 10, 1, 2, 0, 100);
+    codes[i] = warehouse.findByNameAndBrand(Catalogue.name(i), Catalogue.brand(i)).getCode();
+  }
+
+  /**
+   * Escribe el listado completo en un mismo {@link StringBuilder}, para medir el listado y no la
+   * copia final a un {@code String} que hace {@link Warehouse#toString()}
+   *
+   * @throws IOException
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int report() throws IOException {
+    sink.setLength(0);
+    warehouse.report(sink);
+    return sink.length();
+  }
+
+  private int randomCode() {
+    return codes[ThreadLocalRandom.current().nextInt(size)];
+  }
+}
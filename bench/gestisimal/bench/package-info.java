@@ -0,0 +1,8 @@
+/**
+ * Pruebas de rendimiento con JMH de las operaciones del almacén y de su guardado y carga en
+ * fichero.
+ * 
+ * @author Maria Cervilla Alcalde
+ *
+ */
+package gestisimal.bench;
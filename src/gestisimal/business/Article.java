@@ -1,6 +1,7 @@
 package gestisimal.business;
 
-import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Clase Artículo que representa los artículos del almacén.
@@ -9,7 +10,16 @@ import java.util.Objects;
  * @author Maria Cervilla Alcalde
  */
 public class Article {
-  private static int lastCode = 0;
+  /**
+   * Último código generado
+   */
+  private static final AtomicInteger lastCode = new AtomicInteger();
+
+  /**
+   * Acceso atómico al número de unidades
+   */
+  private static final AtomicIntegerFieldUpdater<Article> UNITS =
+      AtomicIntegerFieldUpdater.newUpdater(Article.class, "numberUnits");
 
   /**
    * Código del artículo
@@ -23,18 +33,22 @@ public class Article {
    * Marca del artículo
    */
   private String brand;
+  /**
+   * Número de la marca en el diccionario de marcas del almacén, o -1 si no lo tiene asignado
+   */
+  private int brandId = -1;
   /**
    * Número de unidades del artículo
    */
-  private int numberUnits;
+  private volatile int numberUnits;
   /**
-   * Precio de compra del artículo
+   * Precio de compra del artículo, guardado como indica {@link #encode(double)}
    */
-  private double purchasePrice;
+  private long purchasePrice;
   /**
-   * Precio de venta del artículo
+   * Precio de venta del artículo, guardado como indica {@link #encode(double)}
    */
-  private double sellingPrice;
+  private long sellingPrice;
   /**
    * Stock de seguridad del artículo
    */
@@ -57,7 +71,7 @@ public class Article {
    */
   Article(String name, String brand, int numberUnits, double purchasePrice, double sellingPrice,
       int safetyStock, int maxStock) {
-    this.code = ++lastCode;
+    this.code = lastCode.incrementAndGet();
     set(name, brand, numberUnits, purchasePrice, sellingPrice, safetyStock, maxStock);
   }
 
@@ -73,6 +87,7 @@ public class Article {
    */
   void set(String name, String brand, int numberUnits, double purchasePrice, double sellingPrice,
       int safetyStock, int maxStock) {
+    check(name, brand, numberUnits, purchasePrice, sellingPrice, safetyStock, maxStock);
     setName(name);
     setBrand(brand);
     setNumberUnits(numberUnits);
@@ -96,8 +111,9 @@ public class Article {
    */
   Article(int code, String name, String brand, int numberUnits, double purchasePrice,
       double sellingPrice, int safetyStock, int maxStock) {
-    this(name, brand, numberUnits, purchasePrice, sellingPrice, safetyStock, maxStock);
     this.code = code;
+    reserveCode(code);
+    set(name, brand, numberUnits, purchasePrice, sellingPrice, safetyStock, maxStock);
   }
 
   /**
@@ -136,23 +152,54 @@ public class Article {
 
 
   /**
-   * Añade unidades al artículo.
+   * Evita que se genere un código igual o menor que el indicado, ya usado por un artículo.
+   * @param code Código del artículo
+   */
+  static void reserveCode(int code) {
+    lastCode.accumulateAndGet(code, Math::max);
+  }
+
+  /**
+   * Añade unidades al artículo de forma atómica.
    * @param units Unidades del artículo
+   * @return Unidades del artículo tras añadirlas
    */
-  void addUnits(int units) {
-    numberUnits += units;
+  int addUnits(int units) {
+    return UNITS.addAndGet(this, units);
   }
 
   /**
-   * Incrementa unidades al artículo.
+   * Saca unidades del artículo.
    * @param units Unidades del artículo
+   * @return Unidades que quedan del artículo
    * @throws StockException Si al sacar unidades el stock es insuficiente
    */
-  void deleteUnits(int units) throws StockException {
-    if (numberUnits < units) {
+  int deleteUnits(int units) throws StockException {
+    int remaining = tryDecrease(units);
+    if (remaining < 0) {
       throw new StockException("Stock insuficiente.");
     }
-    numberUnits -= units;
+    return remaining;
+  }
+
+  /**
+   * Intenta sacar unidades del artículo sin bloquear, con compare-and-set: o se reservan todas
+   * las unidades de golpe o no se saca ninguna. Si otro hilo cambia el stock entre medias se
+   * vuelve a intentar con el valor nuevo.
+   * @param units Unidades del artículo
+   * @return Unidades que quedan del artículo, o -1 si el stock es insuficiente
+   */
+  int tryDecrease(int units) {
+    while (true) {
+      int current = numberUnits;
+      if (current < units) {
+        return -1;
+      }
+      if (UNITS.compareAndSet(this, current, current - units)) {
+        return current - units;
+      }
+      Thread.onSpinWait();
+    }
   }
 
   /**
@@ -199,6 +246,25 @@ public class Article {
   void setBrand(String brand) {
     throwsExceptionIfIncorrectFact(brand);
     this.brand = brand;
+    this.brandId = -1;
+  }
+
+
+  /**
+   * Devuelve el número de la marca en el diccionario de marcas del almacén
+   * @return brandId Número de la marca, o -1 si no lo tiene asignado
+   */
+  int getBrandId() {
+    return brandId;
+  }
+
+
+  /**
+   * Asigna el número de la marca en el diccionario de marcas del almacén
+   * @param brandId Número de la marca
+   */
+  void setBrandId(int brandId) {
+    this.brandId = brandId;
   }
 
 
@@ -208,7 +274,17 @@ public class Article {
    * @return purchasePrice Precio de compra del artículo
    */
   public double getPurchasePrice() {
-    return purchasePrice;
+    return decode(purchasePrice);
+  }
+
+
+  /**
+   * Devuelve el precio de compra del artículo en céntimos
+   * @return Céntimos del precio de compra, o {@link Cents#NONE} si no es un número exacto de
+   *         céntimos
+   */
+  public long getPurchaseCents() {
+    return purchasePrice >= 0 ? purchasePrice : Cents.NONE;
   }
 
 
@@ -219,7 +295,7 @@ public class Article {
    */
   void setPurchasePrice(double purchasePrice) {
     throwsExceptionIfAmountIsNegative(purchasePrice);
-    this.purchasePrice = purchasePrice;
+    this.purchasePrice = encode(purchasePrice);
   }
 
 
@@ -229,7 +305,17 @@ public class Article {
    * @return sellingPrice Precio de venta del artículo
    */
   public double getSellingPrice() {
-    return sellingPrice;
+    return decode(sellingPrice);
+  }
+
+
+  /**
+   * Devuelve el precio de venta del artículo en céntimos
+   * @return Céntimos del precio de venta, o {@link Cents#NONE} si no es un número exacto de
+   *         céntimos
+   */
+  public long getSellingCents() {
+    return sellingPrice >= 0 ? sellingPrice : Cents.NONE;
   }
 
 
@@ -240,7 +326,31 @@ public class Article {
    */
   void setSellingPrice(double sellingPrice) {
     throwsExceptionIfAmountIsNegative(sellingPrice);
-    this.sellingPrice = sellingPrice;
+    this.sellingPrice = encode(sellingPrice);
+  }
+
+
+
+  /**
+   * Guarda un precio como sus céntimos, o si no es un número exacto de céntimos, como los bits de
+   * su {@code double} complementados, que salen negativos porque los precios no lo son
+   * @param price Precio, no negativo
+   * @return Precio guardado
+   */
+  private static long encode(double price) {
+    long cents = Cents.of(price);
+    return cents != Cents.NONE ? cents : ~Double.doubleToLongBits(price);
+  }
+
+
+
+  /**
+   * Devuelve el precio guardado por {@link #encode(double)}
+   * @param price Precio guardado
+   * @return Precio
+   */
+  private static double decode(long price) {
+    return price >= 0 ? Cents.toDouble(price) : Double.longBitsToDouble(~price);
   }
 
 
@@ -309,18 +419,46 @@ public class Article {
 
   @Override
   public String toString() {
-    return "Article [code=" + code + ",name=" + name + ", brand=" + brand + ", purchasePrice="
-        + purchasePrice + ", sellingPrice=" + sellingPrice + ", numberUnits=" + numberUnits
-        + ", safetyStock=" + safetyStock + ", maxStock=" + maxStock + "]";
+    return "Article [code=" + getCode() + ",name=" + getName() + ", brand=" + getBrand()
+        + ", purchasePrice=" + getPurchasePrice() + ", sellingPrice=" + getSellingPrice()
+        + ", numberUnits=" + getNumberUnits() + ", safetyStock=" + getSafetyStock()
+        + ", maxStock=" + getMaxStock() + "]";
+  }
+
+  /**
+   * Comprueba todos los datos de un artículo antes de asignar ninguno, para que un dato
+   * incorrecto no deje el artículo cambiado a medias.
+   * @param name Nombre del artículo
+   * @param brand Marca del artículo
+   * @param numberUnits Número de unidades del artículo
+   * @param purchasePrice Precio de compra del artículo
+   * @param sellingPrice Precio de venta del artículo
+   * @param safetyStock Stock de seguridad del artículo
+   * @param maxStock Stock máximo del artículo
+   * @throws ArticleIllegalErrorArgumentException Si algún dato es incorrecto
+   */
+  static void check(String name, String brand, int numberUnits, double purchasePrice,
+      double sellingPrice, int safetyStock, int maxStock) {
+    throwsExceptionIfIncorrectFact(name);
+    throwsExceptionIfIncorrectFact(brand);
+    throwsExceptionIfAmountIsNegative(numberUnits);
+    throwsExceptionIfAmountIsNegative(purchasePrice);
+    throwsExceptionIfAmountIsNegative(sellingPrice);
+    throwsExceptionIfAmountIsNegative(safetyStock);
+    throwsExceptionIfAmountIsNegative(maxStock);
+    if (maxStock < safetyStock) {
+      throw new ArticleIllegalErrorArgumentException(
+          "El stock máximo no puede ser inferior al stock mínimo.");
+    }
   }
 
-  private void throwsExceptionIfAmountIsNegative(double purchasePrice) {
+  static void throwsExceptionIfAmountIsNegative(double purchasePrice) {
     if (purchasePrice < 0) {
       throw new ArticleIllegalErrorArgumentException("No hay stock suficiente.");
     }
   }
 
-  private void throwsExceptionIfIncorrectFact(String fact) {
+  static void throwsExceptionIfIncorrectFact(String fact) {
     if (fact.isBlank() || fact.equals(null)) {
       throw new ArticleIllegalErrorArgumentException("El dato introducido es incorrecto.");
     }
@@ -328,7 +466,7 @@ public class Article {
 
   @Override
   public int hashCode() {
-    return Objects.hash(code);
+    return Integer.hashCode(code);
   }
 
   @Override
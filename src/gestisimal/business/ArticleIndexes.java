@@ -0,0 +1,261 @@
+package gestisimal.business;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Índices ordenados de los artículos por precio de venta, precio de compra, unidades, nombre y
+ * marca, para buscar por rangos y prefijos sin recorrer el almacén.
+ *
+ * Los índices guardan el valor de cada artículo junto a su código, no el artículo, y las
+ * búsquedas devuelven los artículos guardados por código. Ocupan más memoria que los propios
+ * artículos, así que no se construyen hasta la primera búsqueda; hasta entonces los cambios de
+ * los artículos no hacen nada aquí. Los precios, el nombre y la marca solo
+ * cambian en altas, bajas y modificaciones, que no van a la vez que otros cambios. Las unidades
+ * cambian además con movimientos de varios hilos a la vez, así que se reindexan bajo uno de
+ * varios cerrojos repartidos por código y siempre con las unidades del momento.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class ArticleIndexes {
+
+  /**
+   * Número de cerrojos, potencia de dos
+   */
+  private static final int STRIPES = 64;
+
+  /**
+   * Valor de un artículo en un índice numérico, ordenado por valor y después por código
+   */
+  private static class NumberKey implements Comparable<NumberKey> {
+    final double value;
+    final int code;
+
+    NumberKey(double value, int code) {
+      this.value = value;
+      this.code = code;
+    }
+
+    @Override
+    public int compareTo(NumberKey other) {
+      int cmp = Double.compare(value, other.value);
+      return cmp != 0 ? cmp : Integer.compare(code, other.code);
+    }
+  }
+
+  /**
+   * Valor de un artículo en un índice de texto, ordenado por texto y después por código
+   */
+  private static class TextKey implements Comparable<TextKey> {
+    final String text;
+    final int code;
+
+    TextKey(String text, int code) {
+      this.text = text;
+      this.code = code;
+    }
+
+    @Override
+    public int compareTo(TextKey other) {
+      int cmp = text.compareTo(other.text);
+      return cmp != 0 ? cmp : Integer.compare(code, other.code);
+    }
+  }
+
+  private final NavigableSet<NumberKey> sellingPrice = new ConcurrentSkipListSet<>();
+  private final NavigableSet<NumberKey> purchasePrice = new ConcurrentSkipListSet<>();
+  private final NavigableSet<NumberKey> numberUnits = new ConcurrentSkipListSet<>();
+  private final NavigableSet<TextKey> name = new ConcurrentSkipListSet<>();
+  private final NavigableSet<TextKey> brand = new ConcurrentSkipListSet<>();
+  /**
+   * Unidades con las que está indexado cada artículo
+   */
+  private final Map<Integer, Integer> indexedUnits = new ConcurrentHashMap<>();
+  private final Object[] stripes = new Object[STRIPES];
+  /**
+   * Artículos del almacén, para construir los índices
+   */
+  private final Iterable<Article> articles;
+  /**
+   * Si los cambios de los artículos se llevan ya a los índices
+   */
+  private volatile boolean active;
+  /**
+   * Si los índices están completos y se pueden consultar
+   */
+  private volatile boolean ready;
+
+  /**
+   * Crea los índices, vacíos hasta la primera búsqueda
+   *
+   * @param articles Artículos del almacén
+   */
+  ArticleIndexes(Iterable<Article> articles) {
+    this.articles = articles;
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Object();
+    }
+  }
+
+  /**
+   * Indexa un artículo añadido, o el estado nuevo de un artículo modificado
+   *
+   * @param article Artículo
+   */
+  void added(Article article) {
+    if (!active) {
+      return;
+    }
+    int code = article.getCode();
+    sellingPrice.add(new NumberKey(article.getSellingPrice(), code));
+    purchasePrice.add(new NumberKey(article.getPurchasePrice(), code));
+    name.add(new TextKey(fold(article.getName()), code));
+    brand.add(new TextKey(fold(article.getBrand()), code));
+    stock(article);
+  }
+
+  /**
+   * Quita un artículo borrado, o el estado anterior de un artículo que se va a modificar
+   *
+   * @param article Artículo, todavía con sus datos
+   */
+  void removed(Article article) {
+    if (!active) {
+      return;
+    }
+    int code = article.getCode();
+    sellingPrice.remove(new NumberKey(article.getSellingPrice(), code));
+    purchasePrice.remove(new NumberKey(article.getPurchasePrice(), code));
+    name.remove(new TextKey(fold(article.getName()), code));
+    brand.remove(new TextKey(fold(article.getBrand()), code));
+    synchronized (stripes[code & (STRIPES - 1)]) {
+      Integer units = indexedUnits.remove(code);
+      if (units != null) {
+        numberUnits.remove(new NumberKey(units, code));
+      }
+    }
+  }
+
+  /**
+   * Reindexa las unidades de un artículo después de un movimiento de stock
+   *
+   * @param article Artículo
+   */
+  void stock(Article article) {
+    if (!active) {
+      return;
+    }
+    int code = article.getCode();
+    synchronized (stripes[code & (STRIPES - 1)]) {
+      int units = article.getNumberUnits();
+      Integer before = indexedUnits.put(code, units);
+      if (before != null && before != units) {
+        numberUnits.remove(new NumberKey(before, code));
+      }
+      numberUnits.add(new NumberKey(units, code));
+    }
+  }
+
+  /**
+   * Devuelve los códigos de los artículos con precio de venta entre dos valores, incluidos
+   */
+  Iterable<Integer> bySellingPrice(double min, double max) {
+    build();
+    return codes(range(sellingPrice, min, max));
+  }
+
+  /**
+   * Devuelve los códigos de los artículos con precio de compra entre dos valores, incluidos
+   */
+  Iterable<Integer> byPurchasePrice(double min, double max) {
+    build();
+    return codes(range(purchasePrice, min, max));
+  }
+
+  /**
+   * Devuelve los códigos de los artículos con unidades entre dos valores, incluidos
+   */
+  Iterable<Integer> byNumberUnits(int min, int max) {
+    build();
+    return codes(range(numberUnits, min, max));
+  }
+
+  /**
+   * Devuelve los códigos de los artículos de más a menos unidades
+   */
+  Iterable<Integer> byNumberUnitsDescending() {
+    build();
+    return codes(numberUnits.descendingSet());
+  }
+
+  /**
+   * Devuelve los códigos de los artículos cuyo nombre empieza por el prefijo, sin distinguir
+   * mayúsculas
+   */
+  Iterable<Integer> byNamePrefix(String prefix) {
+    build();
+    return prefixed(name, fold(prefix));
+  }
+
+  /**
+   * Devuelve los códigos de los artículos cuya marca empieza por el prefijo, sin distinguir
+   * mayúsculas
+   */
+  Iterable<Integer> byBrandPrefix(String prefix) {
+    build();
+    return prefixed(brand, fold(prefix));
+  }
+
+  /**
+   * Construye los índices la primera vez que se consultan. Se empiezan a seguir los movimientos
+   * de stock antes de recorrer los artículos, de modo que un movimiento a la vez que la
+   * construcción deja el artículo con sus unidades del momento. Las altas, bajas y
+   * modificaciones no van a la vez que una consulta.
+   */
+  private void build() {
+    if (ready) {
+      return;
+    }
+    synchronized (this) {
+      if (!ready) {
+        active = true;
+        for (Article article : articles) {
+          added(article);
+        }
+        ready = true;
+      }
+    }
+  }
+
+  private static NavigableSet<NumberKey> range(NavigableSet<NumberKey> index, double min,
+      double max) {
+    if (min > max) {
+      return new ConcurrentSkipListSet<>();
+    }
+    return index.subSet(new NumberKey(min, Integer.MIN_VALUE), true,
+        new NumberKey(max, Integer.MAX_VALUE), true);
+  }
+
+  private static Iterable<Integer> codes(NavigableSet<NumberKey> keys) {
+    return () -> keys.stream().map(key -> key.code).iterator();
+  }
+
+  /**
+   * Recorre el índice desde el prefijo mientras los textos empiecen por él
+   */
+  private static Iterable<Integer> prefixed(NavigableSet<TextKey> index, String prefix) {
+    return () -> index.tailSet(new TextKey(prefix, Integer.MIN_VALUE)).stream()
+        .takeWhile(key -> key.text.startsWith(prefix)).map(key -> key.code).iterator();
+  }
+
+  /**
+   * Pasa un texto a minúsculas para compararlo sin distinguir mayúsculas
+   */
+  static String fold(String text) {
+    return text.toLowerCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,273 @@
+package gestisimal.business;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Consulta sobre los artículos de un almacén, que se construye encadenando condiciones, orden y
+ * límite y se evalúa al pedir el resultado, sin copiar el almacén.
+ *
+ * La primera condición que tiene índice (precios, unidades, prefijo de nombre o de marca) decide
+ * el recorrido: solo se visitan los artículos de ese índice y todas las condiciones se
+ * comprueban sobre ellos. Sin condiciones con índice se recorre todo el almacén, en paralelo si
+ * es grande y hay que verlo entero. Con orden y límite solo se guardan los mejores artículos
+ * mientras se recorre, en vez de ordenar todos.
+ *
+ * <pre>
+ * List&lt;String&gt; names = warehouse.query().nameStartsWith("tor")
+ *     .filter(article -&gt; article.getNumberUnits() &gt; 0)
+ *     .sorted(Comparator.comparingDouble(Article::getSellingPrice)).limit(50)
+ *     .map(Article::getName);
+ * </pre>
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+public class ArticleQuery {
+
+  /**
+   * Número de artículos a partir del cual un recorrido completo se hace en paralelo
+   */
+  static final int PARALLEL_THRESHOLD = 100_000;
+
+  private final Warehouse warehouse;
+  /**
+   * Índice que decide el recorrido, o null para recorrer todo el almacén
+   */
+  private Function<ArticleIndexes, Iterable<Integer>> index;
+  private Predicate<Article> filter = article -> true;
+  private Comparator<? super Article> order;
+  private long limit = Long.MAX_VALUE;
+
+  ArticleQuery(Warehouse warehouse) {
+    this.warehouse = warehouse;
+  }
+
+  /**
+   * Se queda con los artículos con precio de venta entre dos valores, incluidos
+   *
+   * @param min Precio mínimo
+   * @param max Precio máximo
+   * @return Esta consulta
+   */
+  public ArticleQuery sellingPriceBetween(double min, double max) {
+    return where(indexes -> indexes.bySellingPrice(min, max),
+        article -> article.getSellingPrice() >= min && article.getSellingPrice() <= max);
+  }
+
+  /**
+   * Se queda con los artículos con precio de compra entre dos valores, incluidos
+   *
+   * @param min Precio mínimo
+   * @param max Precio máximo
+   * @return Esta consulta
+   */
+  public ArticleQuery purchasePriceBetween(double min, double max) {
+    return where(indexes -> indexes.byPurchasePrice(min, max),
+        article -> article.getPurchasePrice() >= min && article.getPurchasePrice() <= max);
+  }
+
+  /**
+   * Se queda con los artículos con unidades entre dos valores, incluidos
+   *
+   * @param min Unidades mínimas
+   * @param max Unidades máximas
+   * @return Esta consulta
+   */
+  public ArticleQuery numberUnitsBetween(int min, int max) {
+    return where(indexes -> indexes.byNumberUnits(min, max),
+        article -> article.getNumberUnits() >= min && article.getNumberUnits() <= max);
+  }
+
+  /**
+   * Se queda con los artículos cuyo nombre empieza por un prefijo, sin distinguir mayúsculas
+   *
+   * @param prefix Prefijo
+   * @return Esta consulta
+   */
+  public ArticleQuery nameStartsWith(String prefix) {
+    String folded = ArticleIndexes.fold(prefix);
+    return where(indexes -> indexes.byNamePrefix(prefix),
+        article -> ArticleIndexes.fold(article.getName()).startsWith(folded));
+  }
+
+  /**
+   * Se queda con los artículos cuya marca empieza por un prefijo, sin distinguir mayúsculas
+   *
+   * @param prefix Prefijo
+   * @return Esta consulta
+   */
+  public ArticleQuery brandStartsWith(String prefix) {
+    String folded = ArticleIndexes.fold(prefix);
+    return where(indexes -> indexes.byBrandPrefix(prefix),
+        article -> ArticleIndexes.fold(article.getBrand()).startsWith(folded));
+  }
+
+  /**
+   * Se queda con los artículos que cumplen una condición cualquiera
+   *
+   * @param predicate Condición
+   * @return Esta consulta
+   */
+  public ArticleQuery filter(Predicate<? super Article> predicate) {
+    filter = filter.and(predicate);
+    return this;
+  }
+
+  /**
+   * Ordena el resultado. Sin orden, los artículos salen en el orden del índice que decide el
+   * recorrido o, si no hay, en orden de inserción.
+   *
+   * @param order Orden
+   * @return Esta consulta
+   */
+  public ArticleQuery sorted(Comparator<? super Article> order) {
+    this.order = order;
+    return this;
+  }
+
+  /**
+   * Limita el número de artículos del resultado
+   *
+   * @param limit Número máximo de artículos
+   * @return Esta consulta
+   */
+  public ArticleQuery limit(long limit) {
+    if (limit < 0) {
+      throw new IllegalArgumentException("El límite de la consulta no puede ser negativo.");
+    }
+    this.limit = limit;
+    return this;
+  }
+
+  /**
+   * Evalúa la consulta
+   *
+   * @return Artículos del resultado
+   */
+  public List<Article> list() {
+    return map(Function.identity());
+  }
+
+  /**
+   * Evalúa la consulta y se queda con un dato de cada artículo
+   *
+   * @param projection Dato que se saca de cada artículo
+   * @return Datos de los artículos del resultado, en orden
+   */
+  public <R> List<R> map(Function<? super Article, ? extends R> projection) {
+    return warehouse
+        .read(() -> evaluate(limit).map(projection).collect(Collectors.toList()));
+  }
+
+  /**
+   * Evalúa la consulta y devuelve el primer artículo
+   *
+   * @return Primer artículo del resultado, si hay alguno
+   */
+  public Optional<Article> first() {
+    return warehouse.read(() -> evaluate(Math.min(limit, 1)).findFirst());
+  }
+
+  /**
+   * Evalúa la consulta y cuenta los artículos
+   *
+   * @return Número de artículos del resultado
+   */
+  public long count() {
+    return warehouse.read(() -> evaluate(limit).count());
+  }
+
+  /**
+   * Evalúa la consulta y pasa cada artículo, en orden y en el hilo que llama
+   *
+   * @param action Acción sobre cada artículo
+   */
+  public void forEach(Consumer<? super Article> action) {
+    warehouse.read(() -> {
+      evaluate(limit).forEachOrdered(action);
+      return null;
+    });
+  }
+
+  /**
+   * Añade una condición con índice. La condición se comprueba siempre sobre cada artículo,
+   * también cuando su índice decide el recorrido, porque un movimiento de stock a la vez que la
+   * consulta puede dejar en el índice un artículo que ya no la cumple.
+   */
+  private ArticleQuery where(Function<ArticleIndexes, Iterable<Integer>> index,
+      Predicate<Article> predicate) {
+    if (this.index == null) {
+      this.index = index;
+    }
+    filter = filter.and(predicate);
+    return this;
+  }
+
+  private Stream<Article> evaluate(long limit) {
+    Stream<Article> articles;
+    if (index != null) {
+      articles = warehouse.indexed(index);
+    } else {
+      articles = warehouse.scan();
+      if ((order != null || limit == Long.MAX_VALUE)
+          && warehouse.size() >= PARALLEL_THRESHOLD) {
+        articles = articles.parallel();
+      }
+    }
+    articles = articles.filter(filter);
+    if (order == null) {
+      return limit == Long.MAX_VALUE ? articles : articles.limit(limit);
+    }
+    if (limit > Integer.MAX_VALUE) {
+      return articles.sorted(order);
+    }
+    return articles.collect(() -> new Best(order, (int) limit), Best::add, Best::addAll)
+        .sorted();
+  }
+
+  /**
+   * Los mejores artículos vistos según un orden, hasta un máximo
+   */
+  private static class Best {
+    private final Comparator<? super Article> order;
+    private final int limit;
+    /**
+     * Montículo con el peor de los guardados en la cima
+     */
+    private final PriorityQueue<Article> heap;
+
+    Best(Comparator<? super Article> order, int limit) {
+      this.order = order;
+      this.limit = limit;
+      this.heap = new PriorityQueue<>(order.reversed());
+    }
+
+    void add(Article article) {
+      if (heap.size() < limit) {
+        heap.add(article);
+      } else if (limit > 0 && order.compare(article, heap.peek()) < 0) {
+        heap.poll();
+        heap.add(article);
+      }
+    }
+
+    void addAll(Best other) {
+      other.heap.forEach(this::add);
+    }
+
+    Stream<Article> sorted() {
+      List<Article> sorted = new ArrayList<>(heap);
+      sorted.sort(order);
+      return sorted.stream();
+    }
+  }
+}
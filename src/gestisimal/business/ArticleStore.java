@@ -0,0 +1,103 @@
+package gestisimal.business;
+
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Almacenamiento de los artículos de un almacén, indexado por código y por nombre y marca.
+ *
+ * Los artículos se recorren en orden de inserción.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+interface ArticleStore extends Iterable<Article> {
+
+  /**
+   * Devuelve el artículo con el código indicado.
+   *
+   * @param code Código del artículo
+   * @return Artículo, o null si no existe
+   */
+  Article get(int code);
+
+  /**
+   * Devuelve el artículo con el nombre y la marca indicados.
+   *
+   * @param name Nombre del artículo
+   * @param brand Marca del artículo
+   * @return Artículo, o null si no existe
+   */
+  Article findByNameAndBrand(String name, String brand);
+
+  /**
+   * Añade un artículo. No comprueba si se repiten el nombre y la marca.
+   *
+   * @param article Artículo
+   * @return Artículo tal como queda guardado, o null si ya existía uno con el mismo código
+   */
+  Article add(Article article);
+
+  /**
+   * Borra el artículo con el código indicado.
+   *
+   * @param code Código del artículo
+   * @return Copia del artículo borrado con los datos que tenía, que ya no depende del
+   *         almacenamiento, o null si no existía
+   */
+  Article remove(int code);
+
+  /**
+   * Saca un artículo del índice por nombre y marca antes de cambiarle el nombre o la marca.
+   *
+   * @param article Artículo guardado
+   */
+  void unindexNameAndBrand(Article article);
+
+  /**
+   * Vuelve a meter un artículo en el índice por nombre y marca después de cambiarlos.
+   *
+   * @param article Artículo guardado
+   */
+  void indexNameAndBrand(Article article);
+
+  /**
+   * Devuelve el número de artículos.
+   *
+   * @return Número de artículos
+   */
+  int size();
+
+  /**
+   * Comprueba si no hay artículos.
+   *
+   * @return true si no hay artículos
+   */
+  default boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Recorre los artículos sin copiarlos, en orden de inserción.
+   *
+   * @return Stream secuencial de los artículos, que se puede pasar a paralelo
+   */
+  default Stream<Article> stream() {
+    return StreamSupport.stream(spliterator(), false);
+  }
+
+  /**
+   * Copia los datos de un artículo guardado en un artículo independiente, para devolverlo
+   * después de liberar la fila que ocupaba.
+   *
+   * @param article Artículo guardado
+   * @return Copia del artículo con el mismo código
+   */
+  static Article detach(Article article) {
+    Article copy = new Article(article.getCode(), article.getName(), article.getBrand(),
+        article.getNumberUnits(), article.getPurchasePrice(), article.getSellingPrice(),
+        article.getSafetyStock(), article.getMaxStock());
+    copy.setBrandId(article.getBrandId());
+    return copy;
+  }
+}
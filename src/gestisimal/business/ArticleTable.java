@@ -0,0 +1,261 @@
+package gestisimal.business;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Tabla de artículos en memoria indexada por código.
+ *
+ * Los artículos se guardan en orden de inserción y cada código se localiza mediante una tabla
+ * hash de direccionamiento abierto con claves int, de modo que buscar, modificar o borrar por
+ * código no recorre la lista ni crea objetos. El nombre y la marca se indexan en un HashMap.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class ArticleTable implements ArticleStore {
+
+  /**
+   * Marca de hueco libre en la tabla hash
+   */
+  private static final int FREE = -1;
+
+  /**
+   * Artículos en orden de inserción; los borrados quedan como huecos null
+   */
+  private Article[] entries = new Article[16];
+  /**
+   * Posiciones ocupadas de entries, incluidos los huecos
+   */
+  private int end;
+  /**
+   * Número de artículos de la tabla
+   */
+  private int size;
+  /**
+   * Códigos de cada hueco de la tabla hash
+   */
+  private int[] codes;
+  /**
+   * Posición en entries de cada hueco de la tabla hash, o FREE si está libre
+   */
+  private int[] positions;
+  /**
+   * Artículos indexados por nombre y marca
+   */
+  private final Map<String, Article> byNameAndBrand = new HashMap<String, Article>();
+
+  /**
+   * Crea una tabla vacía.
+   */
+  ArticleTable() {
+    allocateSlots(32);
+  }
+
+  /**
+   * Devuelve el artículo con el código indicado.
+   *
+   * @param code Código del artículo
+   * @return Artículo, o null si no existe
+   */
+  @Override
+  public Article get(int code) {
+    int slot = slotOf(code);
+    return slot == FREE ? null : entries[positions[slot]];
+  }
+
+  @Override
+  public Article findByNameAndBrand(String name, String brand) {
+    return byNameAndBrand.get(nameAndBrandKey(name, brand));
+  }
+
+  /**
+   * Añade un artículo al final de la tabla.
+   */
+  @Override
+  public Article add(Article article) {
+    int code = article.getCode();
+    if (slotOf(code) != FREE) {
+      return null;
+    }
+    if (end == entries.length) {
+      growEntries();
+    }
+    if ((size + 1) * 2 > positions.length) {
+      allocateSlots(positions.length * 2);
+      rehash();
+    }
+    entries[end] = article;
+    insertSlot(code, end++);
+    size++;
+    indexNameAndBrand(article);
+    return article;
+  }
+
+  @Override
+  public Article remove(int code) {
+    int slot = slotOf(code);
+    if (slot == FREE) {
+      return null;
+    }
+    int position = positions[slot];
+    Article article = entries[position];
+    entries[position] = null;
+    deleteSlot(slot);
+    size--;
+    unindexNameAndBrand(article);
+    if (end - size > size && end > 16) {
+      compact();
+    }
+    return article;
+  }
+
+  @Override
+  public void unindexNameAndBrand(Article article) {
+    byNameAndBrand.remove(nameAndBrandKey(article.getName(), article.getBrand()), article);
+  }
+
+  @Override
+  public void indexNameAndBrand(Article article) {
+    byNameAndBrand.putIfAbsent(nameAndBrandKey(article.getName(), article.getBrand()), article);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Recorre directamente el array de artículos, que se parte en trozos iguales para los streams
+   * paralelos.
+   */
+  @Override
+  public Stream<Article> stream() {
+    return Arrays.stream(entries, 0, end).filter(Objects::nonNull);
+  }
+
+  /**
+   * Recorre los artículos en orden de inserción.
+   */
+  @Override
+  public Iterator<Article> iterator() {
+    return new Iterator<Article>() {
+      private int next = skipHoles(0);
+
+      @Override
+      public boolean hasNext() {
+        return next < end;
+      }
+
+      @Override
+      public Article next() {
+        if (next >= end) {
+          throw new NoSuchElementException();
+        }
+        Article article = entries[next];
+        next = skipHoles(next + 1);
+        return article;
+      }
+    };
+  }
+
+  private int skipHoles(int position) {
+    while (position < end && entries[position] == null) {
+      position++;
+    }
+    return position;
+  }
+
+  /**
+   * Clave del índice por nombre y marca
+   *
+   * @param name Nombre del artículo
+   * @param brand Marca del artículo
+   * @return Clave que identifica la pareja nombre y marca
+   */
+  private static String nameAndBrandKey(String name, String brand) {
+    return name + '\0' + brand;
+  }
+
+  private static int hash(int code) {
+    int h = code * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private int slotOf(int code) {
+    int mask = positions.length - 1;
+    for (int slot = hash(code) & mask; positions[slot] != FREE; slot = (slot + 1) & mask) {
+      if (codes[slot] == code) {
+        return slot;
+      }
+    }
+    return FREE;
+  }
+
+  private void insertSlot(int code, int position) {
+    int mask = positions.length - 1;
+    int slot = hash(code) & mask;
+    while (positions[slot] != FREE) {
+      slot = (slot + 1) & mask;
+    }
+    codes[slot] = code;
+    positions[slot] = position;
+  }
+
+  /**
+   * Libera un hueco de la tabla hash desplazando hacia atrás los códigos que colisionaban con él,
+   * para no dejar marcas de borrado.
+   */
+  private void deleteSlot(int slot) {
+    int mask = positions.length - 1;
+    int hole = slot;
+    for (int next = (hole + 1) & mask; positions[next] != FREE; next = (next + 1) & mask) {
+      int home = hash(codes[next]) & mask;
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        codes[hole] = codes[next];
+        positions[hole] = positions[next];
+        hole = next;
+      }
+    }
+    positions[hole] = FREE;
+  }
+
+  private void allocateSlots(int capacity) {
+    codes = new int[capacity];
+    positions = new int[capacity];
+    Arrays.fill(positions, FREE);
+  }
+
+  private void rehash() {
+    for (int position = 0; position < end; position++) {
+      if (entries[position] != null) {
+        insertSlot(entries[position].getCode(), position);
+      }
+    }
+  }
+
+  private void growEntries() {
+    entries = Arrays.copyOf(entries, entries.length * 2);
+  }
+
+  /**
+   * Elimina los huecos dejados por los borrados manteniendo el orden de inserción.
+   */
+  private void compact() {
+    int dense = 0;
+    for (int position = 0; position < end; position++) {
+      if (entries[position] != null) {
+        entries[dense++] = entries[position];
+      }
+    }
+    Arrays.fill(entries, dense, end, null);
+    end = dense;
+    Arrays.fill(positions, FREE);
+    rehash();
+  }
+}
@@ -0,0 +1,86 @@
+package gestisimal.business;
+
+import java.io.IOException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Conversión de artículos a JSON y desde JSON campo a campo, sin reflexión. Los precios con
+ * dos decimales como mucho se leen y escriben por sus céntimos con {@link Cents}.
+ * 
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class ArticleTypeAdapter extends TypeAdapter<Article> {
+
+  @Override
+  public void write(JsonWriter out, Article article) throws IOException {
+    out.beginObject();
+    out.name("code").value(article.getCode());
+    out.name("name").value(article.getName());
+    out.name("brand").value(article.getBrand());
+    out.name("numberUnits").value(article.getNumberUnits());
+    writePrice(out.name("purchasePrice"), article.getPurchasePrice());
+    writePrice(out.name("sellingPrice"), article.getSellingPrice());
+    out.name("safetyStock").value(article.getSafetyStock());
+    out.name("maxStock").value(article.getMaxStock());
+    out.endObject();
+  }
+
+  @Override
+  public Article read(JsonReader in) throws IOException {
+    int code = 0;
+    String name = null;
+    String brand = null;
+    int numberUnits = 0;
+    double purchasePrice = 0;
+    double sellingPrice = 0;
+    int safetyStock = 0;
+    int maxStock = 0;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "code":
+          code = in.nextInt();
+          break;
+        case "name":
+          name = in.nextString();
+          break;
+        case "brand":
+          brand = in.nextString();
+          break;
+        case "numberUnits":
+          numberUnits = in.nextInt();
+          break;
+        case "purchasePrice":
+          purchasePrice = Cents.parsePrice(in.nextString());
+          break;
+        case "sellingPrice":
+          sellingPrice = Cents.parsePrice(in.nextString());
+          break;
+        case "safetyStock":
+          safetyStock = in.nextInt();
+          break;
+        case "maxStock":
+          maxStock = in.nextInt();
+          break;
+        default:
+          in.skipValue();
+          break;
+      }
+    }
+    in.endObject();
+    return new Article(code, name, brand, numberUnits, purchasePrice, sellingPrice, safetyStock,
+        maxStock);
+  }
+
+  private static void writePrice(JsonWriter out, double price) throws IOException {
+    long cents = Cents.of(price);
+    if (cents == Cents.NONE) {
+      out.value(price);
+    } else {
+      out.jsonValue(Cents.append(new StringBuilder(16), cents).toString());
+    }
+  }
+}
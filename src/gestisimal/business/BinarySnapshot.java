@@ -0,0 +1,192 @@
+package gestisimal.business;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Formato binario de copia del almacén, pensado para guardar y cargar a la velocidad del disco.
+ *
+ * El fichero empieza con una cabecera fija (número mágico, versión, número de artículos y CRC32
+ * del cuerpo) seguida de un registro por artículo: primero los campos numéricos con anchura fija
+ * y después el nombre y la marca en UTF-8 precedidos de su longitud. Todo se lee y escribe a
+ * través de buffers NIO sobre un FileChannel.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class BinarySnapshot {
+
+  /**
+   * Número mágico del formato ("GSML")
+   */
+  private static final int MAGIC = 0x47534D4C;
+  /**
+   * Versión del formato
+   */
+  private static final short VERSION = 1;
+  /**
+   * Tamaño de la cabecera en bytes
+   */
+  static final int HEADER_SIZE = 16;
+  /**
+   * Tamaño de los campos numéricos de un registro en bytes
+   */
+  private static final int FIXED_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+  /**
+   * Tamaño del buffer de lectura y escritura
+   */
+  private static final int BUFFER_SIZE = 1 << 18;
+
+  private BinarySnapshot() {}
+
+  /**
+   * Guarda los artículos en un fichero binario
+   *
+   * @param articles Artículos
+   * @param file Fichero
+   * @throws IOException
+   */
+  static void write(Iterable<Article> articles, Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      channel.position(HEADER_SIZE);
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      CRC32 crc = new CRC32();
+      int count = 0;
+      for (Article article : articles) {
+        byte[] name = article.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] brand = article.getBrand().getBytes(StandardCharsets.UTF_8);
+        int size = FIXED_SIZE + 4 + name.length + 4 + brand.length;
+        if (buffer.remaining() < size) {
+          flush(channel, buffer, crc);
+          if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(size);
+          }
+        }
+        buffer.putInt(article.getCode());
+        buffer.putInt(article.getNumberUnits());
+        buffer.putDouble(article.getPurchasePrice());
+        buffer.putDouble(article.getSellingPrice());
+        buffer.putInt(article.getSafetyStock());
+        buffer.putInt(article.getMaxStock());
+        buffer.putInt(name.length).put(name);
+        buffer.putInt(brand.length).put(brand);
+        count++;
+      }
+      flush(channel, buffer, crc);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putInt(count)
+          .putInt((int) crc.getValue()).flip();
+      while (header.hasRemaining()) {
+        channel.write(header, header.position());
+      }
+    }
+  }
+
+  /**
+   * Carga los artículos de un fichero binario
+   *
+   * @param file Fichero
+   * @param sink Destino de cada artículo leído
+   * @throws IOException Si el fichero no tiene el formato esperado o está dañado
+   */
+  static void read(Path file, Consumer<Article> sink) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining()) {
+        if (channel.read(header) < 0) {
+          throw new IOException("La copia binaria del almacén está incompleta.");
+        }
+      }
+      header.flip();
+      if (header.getInt() != MAGIC || header.getShort() != VERSION) {
+        throw new IOException("El fichero no es una copia binaria del almacén.");
+      }
+      header.getShort();
+      int count = header.getInt();
+      int checksum = header.getInt();
+
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).limit(0);
+      CRC32 crc = new CRC32();
+
+      for (int i = 0; i < count; i++) {
+        buffer = fill(channel, buffer, FIXED_SIZE + 4, crc);
+        int code = buffer.getInt();
+        int numberUnits = buffer.getInt();
+        double purchasePrice = buffer.getDouble();
+        double sellingPrice = buffer.getDouble();
+        int safetyStock = buffer.getInt();
+        int maxStock = buffer.getInt();
+        int length = buffer.getInt();
+        buffer = fill(channel, buffer, length + 4, crc);
+        String name = readString(buffer, length);
+        length = buffer.getInt();
+        buffer = fill(channel, buffer, length, crc);
+        String brand = readString(buffer, length);
+        sink.accept(new Article(code, name, brand, numberUnits, purchasePrice, sellingPrice,
+            safetyStock, maxStock));
+      }
+      if (buffer.hasRemaining() || channel.position() != channel.size()
+          || (int) crc.getValue() != checksum) {
+        throw new IOException("La copia binaria del almacén está dañada.");
+      }
+    }
+  }
+
+  /**
+   * Escribe en el canal lo que haya en el buffer y lo acumula en el CRC
+   */
+  private static void flush(FileChannel channel, ByteBuffer buffer, CRC32 crc)
+      throws IOException {
+    buffer.flip();
+    crc.update(buffer.duplicate());
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Se asegura de que el buffer tenga al menos los bytes pedidos por leer, trayendo más del canal
+   * y acumulando en el CRC lo que se trae
+   *
+   * @return Buffer listo para leer, que puede ser uno nuevo si el pedido no cabía
+   */
+  private static ByteBuffer fill(FileChannel channel, ByteBuffer buffer, int needed, CRC32 crc)
+      throws IOException {
+    if (needed < 0) {
+      throw new IOException("La copia binaria del almacén está dañada.");
+    }
+    if (buffer.remaining() >= needed) {
+      return buffer;
+    }
+    if (buffer.capacity() < needed) {
+      buffer = ByteBuffer.allocate(needed).put(buffer);
+    } else {
+      buffer.compact();
+    }
+    while (buffer.position() < needed) {
+      int start = buffer.position();
+      if (channel.read(buffer) < 0) {
+        throw new IOException("La copia binaria del almacén está incompleta.");
+      }
+      crc.update(buffer.duplicate().position(start).limit(buffer.position()));
+    }
+    return buffer.flip();
+  }
+
+  private static String readString(ByteBuffer buffer, int length) {
+    String text =
+        new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+            StandardCharsets.UTF_8);
+    buffer.position(buffer.position() + length);
+    return text;
+  }
+}
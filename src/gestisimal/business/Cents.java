@@ -0,0 +1,207 @@
+package gestisimal.business;
+
+import java.io.IOException;
+
+/**
+ * Precios e importes como número entero de céntimos en un {@code long}, para sumarlos de forma
+ * exacta y leerlos y escribirlos sin pasar por la conversión de decimales de {@code double}.
+ *
+ * Los artículos guardan sus precios en céntimos y los devuelven también como {@code double}; un
+ * precio tiene céntimos cuando es el {@code double} más cercano a un número de céntimos, como los
+ * que se escriben con dos decimales a mano o en un fichero. Los precios con más decimales, o por
+ * encima de {@link #MAX}, no tienen céntimos y siguen por el camino de {@code double}. El paso de céntimos a {@code double} y
+ * vuelta no pierde nada: {@code Cents.toDouble(Cents.parse("12.34"))} es exactamente
+ * {@code Double.parseDouble("12.34")}.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+public final class Cents {
+
+  /**
+   * Valor que indica que un precio no es un número exacto de céntimos
+   */
+  public static final long NONE = Long.MIN_VALUE;
+
+  /**
+   * Mayor número de céntimos de un precio, 21.474.836,47, para que las unidades de un artículo
+   * por su precio quepan siempre en un {@code long}
+   */
+  public static final long MAX = Integer.MAX_VALUE;
+
+  /**
+   * Céntimos a partir de los cuales {@link Double#toString(double)} usa notación científica
+   */
+  private static final long SCIENTIFIC = 1_000_000_000L;
+
+  private Cents() {}
+
+  /**
+   * Devuelve los céntimos de un precio
+   *
+   * @param price Precio
+   * @return Céntimos del precio, o {@link #NONE} si no es un número exacto de céntimos
+   */
+  public static long of(double price) {
+    double scaled = price * 100;
+    if (!(Math.abs(scaled) <= MAX)) {
+      return NONE;
+    }
+    long cents = Math.round(scaled);
+    return cents / 100.0 == price ? cents : NONE;
+  }
+
+  /**
+   * Devuelve el precio con unos céntimos
+   *
+   * @param cents Céntimos
+   * @return Precio, el {@code double} más cercano
+   */
+  public static double toDouble(long cents) {
+    return cents / 100.0;
+  }
+
+  /**
+   * Lee un precio escrito como número decimal con dos decimales como mucho, como "12", "12.5" o
+   * "-0.05", directamente a céntimos. Los decimales de más se admiten si son ceros.
+   *
+   * @param text Precio escrito
+   * @return Céntimos del precio, o {@link #NONE} si el texto no es un número decimal así, tiene
+   *         exponente o pasa de {@link #MAX}
+   */
+  public static long parse(CharSequence text) {
+    int length = text.length();
+    int i = 0;
+    boolean negative = length > 0 && text.charAt(0) == '-';
+    if (negative) {
+      i++;
+    }
+    long cents = 0;
+    int digits = 0;
+    for (; i < length && isDigit(text.charAt(i)); i++) {
+      cents = cents * 10 + (text.charAt(i) - '0');
+      if (++digits > 10) {
+        return NONE;
+      }
+    }
+    cents *= 100;
+    int decimals = 0;
+    if (i < length && text.charAt(i) == '.') {
+      for (i++; i < length && isDigit(text.charAt(i)); i++, decimals++) {
+        int digit = text.charAt(i) - '0';
+        if (decimals < 2) {
+          cents += digit * (decimals == 0 ? 10 : 1);
+        } else if (digit != 0) {
+          return NONE;
+        }
+      }
+    }
+    if (i != length || digits + decimals == 0 || cents > MAX) {
+      return NONE;
+    }
+    return negative ? -cents : cents;
+  }
+
+  /**
+   * Escribe unos céntimos como precio con el mismo texto que
+   * {@link Double#toString(double)} daría para su {@code double}, como "12.0", "12.5" o "0.05",
+   * sin crear objetos
+   *
+   * @param out Destino
+   * @param cents Céntimos
+   * @return El destino
+   */
+  public static StringBuilder append(StringBuilder out, long cents) {
+    if (Math.abs(cents) >= SCIENTIFIC) {
+      return out.append(toDouble(cents));
+    }
+    if (cents < 0) {
+      out.append('-');
+      cents = -cents;
+    }
+    int fraction = (int) (cents % 100);
+    out.append(cents / 100).append('.');
+    if (fraction % 10 == 0) {
+      return out.append(fraction / 10);
+    }
+    if (fraction < 10) {
+      out.append('0');
+    }
+    return out.append(fraction);
+  }
+
+  /**
+   * Escribe unos céntimos con el mismo texto que {@link #append(StringBuilder, long)}, cifra a
+   * cifra en cualquier destino y sin crear objetos
+   *
+   * @param out Destino
+   * @param cents Céntimos
+   * @throws IOException
+   */
+  static void write(Appendable out, long cents) throws IOException {
+    if (Math.abs(cents) >= SCIENTIFIC) {
+      out.append(Double.toString(toDouble(cents)));
+      return;
+    }
+    if (cents < 0) {
+      out.append('-');
+      cents = -cents;
+    }
+    int units = (int) (cents / 100);
+    int fraction = (int) (cents % 100);
+    int power = 1;
+    while (power <= units / 10) {
+      power *= 10;
+    }
+    for (; power > 0; power /= 10) {
+      out.append((char) ('0' + units / power % 10));
+    }
+    out.append('.').append((char) ('0' + fraction / 10));
+    if (fraction % 10 != 0) {
+      out.append((char) ('0' + fraction % 10));
+    }
+  }
+
+  /**
+   * Escribe un precio por sus céntimos, o como {@code double} si no los tiene
+   *
+   * @param out Destino
+   * @param cents Céntimos del precio, o {@link #NONE}
+   * @param price Precio
+   * @throws IOException
+   */
+  static void write(Appendable out, long cents, double price) throws IOException {
+    if (cents == NONE) {
+      out.append(Double.toString(price));
+    } else {
+      write(out, cents);
+    }
+  }
+
+  /**
+   * Escribe un precio, por sus céntimos si los tiene
+   *
+   * @param price Precio
+   * @return El mismo texto que {@link Double#toString(double)}
+   */
+  static String format(double price) {
+    long cents = of(price);
+    return cents == NONE ? Double.toString(price) : append(new StringBuilder(16), cents).toString();
+  }
+
+  /**
+   * Lee un precio, directamente a céntimos si tiene dos decimales como mucho
+   *
+   * @param text Precio escrito
+   * @return Precio
+   * @throws NumberFormatException Si el texto no es un número
+   */
+  static double parsePrice(String text) {
+    long cents = parse(text);
+    return cents == NONE ? Double.parseDouble(text) : toDouble(cents);
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+}
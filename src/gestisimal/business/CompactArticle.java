@@ -0,0 +1,163 @@
+package gestisimal.business;
+
+/**
+ * Vista de un artículo guardado en una fila de un {@link CompactArticleStore}. No guarda ningún
+ * dato propio aparte del código y la fila: lee y escribe directamente en las columnas. Si la
+ * fila cambia porque se han eliminado huecos, la vista la vuelve a buscar por código.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class CompactArticle extends Article {
+
+  /**
+   * Almacenamiento donde está el artículo
+   */
+  private final CompactArticleStore store;
+  /**
+   * Última fila conocida del artículo
+   */
+  private int row;
+
+  /**
+   * Crea la vista de una fila.
+   *
+   * @param store Almacenamiento donde está el artículo
+   * @param code Código del artículo
+   * @param row Fila del artículo
+   */
+  CompactArticle(CompactArticleStore store, int code, int row) {
+    super(code);
+    this.store = store;
+    this.row = row;
+  }
+
+  /**
+   * Devuelve la fila del artículo, buscándola otra vez si se ha movido.
+   *
+   * @return Fila del artículo
+   * @throws IllegalStateException Si el artículo ya no está en el almacén
+   */
+  int row() {
+    if (store.code(row) != getCode()) {
+      int moved = store.rowOf(getCode());
+      if (moved < 0) {
+        throw new IllegalStateException("El artículo ya no está en el almacén.");
+      }
+      row = moved;
+    }
+    return row;
+  }
+
+  @Override
+  int addUnits(int units) {
+    return store.addUnits(row(), units);
+  }
+
+  @Override
+  int tryDecrease(int units) {
+    return store.tryDecrease(row(), units);
+  }
+
+  @Override
+  public String getName() {
+    return store.name(row());
+  }
+
+  @Override
+  void setName(String name) {
+    throwsExceptionIfIncorrectFact(name);
+    store.setName(row(), name);
+  }
+
+  @Override
+  public String getBrand() {
+    return store.brand(row());
+  }
+
+  @Override
+  void setBrand(String brand) {
+    throwsExceptionIfIncorrectFact(brand);
+    store.setBrand(row(), brand);
+  }
+
+  @Override
+  int getBrandId() {
+    return store.brandId(row());
+  }
+
+  /**
+   * No hace nada: la marca ya se guarda por su número en el diccionario del almacén.
+   */
+  @Override
+  void setBrandId(int brandId) {}
+
+  @Override
+  public double getPurchasePrice() {
+    return store.purchasePrice(row());
+  }
+
+  @Override
+  void setPurchasePrice(double purchasePrice) {
+    throwsExceptionIfAmountIsNegative(purchasePrice);
+    store.setPurchasePrice(row(), purchasePrice);
+  }
+
+  @Override
+  public long getPurchaseCents() {
+    return store.purchaseCents(row());
+  }
+
+  @Override
+  public double getSellingPrice() {
+    return store.sellingPrice(row());
+  }
+
+  @Override
+  public long getSellingCents() {
+    return store.sellingCents(row());
+  }
+
+  @Override
+  void setSellingPrice(double sellingPrice) {
+    throwsExceptionIfAmountIsNegative(sellingPrice);
+    store.setSellingPrice(row(), sellingPrice);
+  }
+
+  @Override
+  public int getNumberUnits() {
+    return store.numberUnits(row());
+  }
+
+  @Override
+  void setNumberUnits(int numberUnits) {
+    throwsExceptionIfAmountIsNegative(numberUnits);
+    store.setNumberUnits(row(), numberUnits);
+  }
+
+  @Override
+  public int getSafetyStock() {
+    return store.safetyStock(row());
+  }
+
+  @Override
+  void setSafetyStock(int safetyStock) {
+    throwsExceptionIfAmountIsNegative(safetyStock);
+    store.setSafetyStock(row(), safetyStock);
+  }
+
+  @Override
+  public int getMaxStock() {
+    return store.maxStock(row());
+  }
+
+  @Override
+  void setMaxStock(int maxStock) {
+    throwsExceptionIfAmountIsNegative(maxStock);
+    if (maxStock < getSafetyStock()) {
+      throw new ArticleIllegalErrorArgumentException(
+          "El stock máximo no puede ser inferior al stock mínimo.");
+    }
+    store.setMaxStock(row(), maxStock);
+  }
+}
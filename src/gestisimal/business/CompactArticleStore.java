@@ -0,0 +1,439 @@
+package gestisimal.business;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Almacenamiento de artículos en memoria organizado por columnas.
+ *
+ * Cada campo numérico de los artículos se guarda en un array de tipo primitivo, el nombre en un
+ * array de cadenas y la marca como su número en el diccionario de marcas del almacén, de modo
+ * que cada artículo ocupa unas pocas posiciones de arrays en vez de un objeto con sus cadenas. Los
+ * artículos se indexan por código y por nombre y marca con dos tablas hash de direccionamiento
+ * abierto, igual que en {@link MappedArticleStore}. Los artículos que se devuelven son vistas
+ * {@link CompactArticle} que se crean al pedirlas.
+ *
+ * Los borrados dejan huecos (código 0) que se eliminan cuando son más que los artículos, igual
+ * que en {@link ArticleTable}. Las vistas vuelven a buscar su fila por código si ha cambiado.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class CompactArticleStore implements ArticleStore {
+
+  /**
+   * Acceso atómico a las unidades
+   */
+  private static final VarHandle UNITS = MethodHandles.arrayElementVarHandle(int[].class);
+
+  private int[] codes = new int[16];
+  private int[] units = new int[16];
+  private double[] purchasePrices = new double[16];
+  private double[] sellingPrices = new double[16];
+  /**
+   * Céntimos de cada precio, o {@link Cents#NONE}, calculados al cambiar el precio
+   */
+  private long[] purchaseCents = new long[16];
+  private long[] sellingCents = new long[16];
+  private int[] safetyStocks = new int[16];
+  private int[] maxStocks = new int[16];
+  private String[] names = new String[16];
+  private int[] brands = new int[16];
+  /**
+   * Hash del nombre y la marca de cada fila
+   */
+  private int[] hashes = new int[16];
+  /**
+   * Fila más uno de cada hueco de la tabla hash por código, o 0 si está libre
+   */
+  private int[] codeSlots = new int[32];
+  /**
+   * Fila más uno de cada hueco de la tabla hash por nombre y marca, o 0 si está libre
+   */
+  private int[] nameSlots = new int[32];
+  /**
+   * Marcas distintas de los artículos, compartidas con el almacén
+   */
+  private final StringDictionary brandNames;
+  /**
+   * Filas ocupadas, incluidos los huecos
+   */
+  private int end;
+  /**
+   * Número de artículos
+   */
+  private int size;
+
+  /**
+   * Crea un almacenamiento vacío
+   *
+   * @param brandNames Diccionario de marcas del almacén
+   */
+  CompactArticleStore(StringDictionary brandNames) {
+    this.brandNames = brandNames;
+  }
+
+  @Override
+  public Article get(int code) {
+    int row = rowOf(code);
+    return row < 0 ? null : new CompactArticle(this, code, row);
+  }
+
+  @Override
+  public Article findByNameAndBrand(String name, String brand) {
+    int hash = nameAndBrandHash(name, brand);
+    int mask = nameSlots.length - 1;
+    for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+      int row = nameSlots[slot] - 1;
+      if (row < 0) {
+        return null;
+      }
+      if (hashes[row] == hash && names[row].equals(name) && brand(row).equals(brand)) {
+        return new CompactArticle(this, codes[row], row);
+      }
+    }
+  }
+
+  @Override
+  public Article add(Article article) {
+    int code = article.getCode();
+    if (rowOf(code) >= 0) {
+      return null;
+    }
+    if (end == codes.length) {
+      growRows();
+    }
+    int row = end++;
+    codes[row] = code;
+    size++;
+    if (2 * end > codeSlots.length) {
+      rehash(codeSlots.length * 2);
+    }
+    insertSlot(codeSlots, mix(code), row);
+
+    CompactArticle stored = new CompactArticle(this, code, row);
+    stored.set(article.getName(), article.getBrand(), article.getNumberUnits(),
+        article.getPurchasePrice(), article.getSellingPrice(), article.getSafetyStock(),
+        article.getMaxStock());
+    indexNameAndBrand(stored);
+    return stored;
+  }
+
+  @Override
+  public Article remove(int code) {
+    int row = rowOf(code);
+    if (row < 0) {
+      return null;
+    }
+    CompactArticle stored = new CompactArticle(this, code, row);
+    Article removed = ArticleStore.detach(stored);
+    unindexNameAndBrand(stored);
+    deleteSlot(codeSlots, slotOf(codeSlots, mix(code), row));
+    codes[row] = 0;
+    names[row] = null;
+    size--;
+    if (end - size > size && end > 16) {
+      compact();
+    }
+    return removed;
+  }
+
+  @Override
+  public void unindexNameAndBrand(Article article) {
+    int row = ((CompactArticle) article).row();
+    int slot = slotOf(nameSlots, mix(hashes[row]), row);
+    if (slot >= 0) {
+      deleteSlot(nameSlots, slot);
+    }
+  }
+
+  @Override
+  public void indexNameAndBrand(Article article) {
+    int row = ((CompactArticle) article).row();
+    hashes[row] = nameAndBrandHash(names[row], brand(row));
+    insertSlot(nameSlots, mix(hashes[row]), row);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Recorre las filas por posición, que se parten en trozos iguales para los streams paralelos.
+   */
+  @Override
+  public Stream<Article> stream() {
+    int[] codes = this.codes;
+    return IntStream.range(0, end).filter(row -> codes[row] != 0)
+        .mapToObj(row -> new CompactArticle(this, codes[row], row));
+  }
+
+  /**
+   * Recorre los artículos en orden de fila, que es el de inserción.
+   */
+  @Override
+  public Iterator<Article> iterator() {
+    return new Iterator<Article>() {
+      private int next = skipHoles(0);
+
+      @Override
+      public boolean hasNext() {
+        return next < end;
+      }
+
+      @Override
+      public Article next() {
+        if (next >= end) {
+          throw new NoSuchElementException();
+        }
+        Article article = new CompactArticle(CompactArticleStore.this, codes[next], next);
+        next = skipHoles(next + 1);
+        return article;
+      }
+    };
+  }
+
+  /**
+   * Devuelve el código de una fila, 0 si es un hueco o está fuera de la tabla
+   */
+  int code(int row) {
+    return row < end ? codes[row] : 0;
+  }
+
+  String name(int row) {
+    return names[row];
+  }
+
+  void setName(int row, String name) {
+    names[row] = name;
+  }
+
+  String brand(int row) {
+    return brandNames.valueOf(brands[row]);
+  }
+
+  void setBrand(int row, String brand) {
+    brands[row] = brandNames.idOf(brand);
+  }
+
+  int brandId(int row) {
+    return brands[row];
+  }
+
+  int numberUnits(int row) {
+    return (int) UNITS.getVolatile(units, row);
+  }
+
+  void setNumberUnits(int row, int numberUnits) {
+    UNITS.setVolatile(units, row, numberUnits);
+  }
+
+  /**
+   * Añade unidades a una fila de forma atómica
+   *
+   * @return Unidades tras añadirlas
+   */
+  int addUnits(int row, int units) {
+    return (int) UNITS.getAndAdd(this.units, row, units) + units;
+  }
+
+  /**
+   * Saca unidades de una fila con compare-and-set, o ninguna si no hay suficientes
+   *
+   * @return Unidades que quedan, o -1 si el stock es insuficiente
+   */
+  int tryDecrease(int row, int units) {
+    while (true) {
+      int current = (int) UNITS.getVolatile(this.units, row);
+      if (current < units) {
+        return -1;
+      }
+      if (UNITS.compareAndSet(this.units, row, current, current - units)) {
+        return current - units;
+      }
+      Thread.onSpinWait();
+    }
+  }
+
+  double purchasePrice(int row) {
+    return purchasePrices[row];
+  }
+
+  void setPurchasePrice(int row, double purchasePrice) {
+    purchasePrices[row] = purchasePrice;
+    purchaseCents[row] = Cents.of(purchasePrice);
+  }
+
+  long purchaseCents(int row) {
+    return purchaseCents[row];
+  }
+
+  double sellingPrice(int row) {
+    return sellingPrices[row];
+  }
+
+  void setSellingPrice(int row, double sellingPrice) {
+    sellingPrices[row] = sellingPrice;
+    sellingCents[row] = Cents.of(sellingPrice);
+  }
+
+  long sellingCents(int row) {
+    return sellingCents[row];
+  }
+
+  int safetyStock(int row) {
+    return safetyStocks[row];
+  }
+
+  void setSafetyStock(int row, int safetyStock) {
+    safetyStocks[row] = safetyStock;
+  }
+
+  int maxStock(int row) {
+    return maxStocks[row];
+  }
+
+  void setMaxStock(int row, int maxStock) {
+    maxStocks[row] = maxStock;
+  }
+
+  /**
+   * Devuelve la fila del artículo con el código indicado, o -1 si no existe
+   */
+  int rowOf(int code) {
+    int mask = codeSlots.length - 1;
+    for (int slot = mix(code) & mask;; slot = (slot + 1) & mask) {
+      int row = codeSlots[slot] - 1;
+      if (row < 0 || codes[row] == code) {
+        return row;
+      }
+    }
+  }
+
+  private int skipHoles(int row) {
+    while (row < end && codes[row] == 0) {
+      row++;
+    }
+    return row;
+  }
+
+  private void growRows() {
+    int capacity = codes.length * 2;
+    codes = Arrays.copyOf(codes, capacity);
+    units = Arrays.copyOf(units, capacity);
+    purchasePrices = Arrays.copyOf(purchasePrices, capacity);
+    sellingPrices = Arrays.copyOf(sellingPrices, capacity);
+    purchaseCents = Arrays.copyOf(purchaseCents, capacity);
+    sellingCents = Arrays.copyOf(sellingCents, capacity);
+    safetyStocks = Arrays.copyOf(safetyStocks, capacity);
+    maxStocks = Arrays.copyOf(maxStocks, capacity);
+    names = Arrays.copyOf(names, capacity);
+    brands = Arrays.copyOf(brands, capacity);
+    hashes = Arrays.copyOf(hashes, capacity);
+  }
+
+  /**
+   * Elimina los huecos dejados por los borrados manteniendo el orden de inserción.
+   */
+  private void compact() {
+    int dense = 0;
+    for (int row = 0; row < end; row++) {
+      if (codes[row] != 0) {
+        codes[dense] = codes[row];
+        units[dense] = units[row];
+        purchasePrices[dense] = purchasePrices[row];
+        sellingPrices[dense] = sellingPrices[row];
+        purchaseCents[dense] = purchaseCents[row];
+        sellingCents[dense] = sellingCents[row];
+        safetyStocks[dense] = safetyStocks[row];
+        maxStocks[dense] = maxStocks[row];
+        names[dense] = names[row];
+        brands[dense] = brands[row];
+        hashes[dense] = hashes[row];
+        dense++;
+      }
+    }
+    Arrays.fill(codes, dense, end, 0);
+    Arrays.fill(names, dense, end, null);
+    end = dense;
+    rehash(codeSlots.length);
+  }
+
+  /**
+   * Vuelve a llenar las dos tablas hash con la capacidad indicada
+   */
+  private void rehash(int slots) {
+    codeSlots = new int[slots];
+    nameSlots = new int[slots];
+    for (int row = 0; row < end; row++) {
+      if (codes[row] != 0) {
+        insertSlot(codeSlots, mix(codes[row]), row);
+        insertSlot(nameSlots, mix(hashes[row]), row);
+      }
+    }
+  }
+
+  /**
+   * Devuelve el hueco de una tabla hash que apunta a la fila indicada, o -1 si no hay ninguno
+   */
+  private static int slotOf(int[] table, int hash, int row) {
+    int mask = table.length - 1;
+    for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+      if (table[slot] == 0) {
+        return -1;
+      }
+      if (table[slot] == row + 1) {
+        return slot;
+      }
+    }
+  }
+
+  /**
+   * Apunta a una fila desde el primer hueco libre de una tabla hash
+   */
+  private static void insertSlot(int[] table, int hash, int row) {
+    int mask = table.length - 1;
+    int slot = hash & mask;
+    while (table[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = row + 1;
+  }
+
+  /**
+   * Libera un hueco de una tabla hash desplazando hacia atrás las filas que colisionaban con él
+   */
+  private void deleteSlot(int[] table, int slot) {
+    int mask = table.length - 1;
+    int hole = slot;
+    for (int next = (hole + 1) & mask;; next = (next + 1) & mask) {
+      int value = table[next];
+      if (value == 0) {
+        break;
+      }
+      int row = value - 1;
+      int hash = table == codeSlots ? mix(codes[row]) : mix(hashes[row]);
+      int home = hash & mask;
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        table[hole] = value;
+        hole = next;
+      }
+    }
+    table[hole] = 0;
+  }
+
+  private static int nameAndBrandHash(String name, String brand) {
+    return 31 * name.hashCode() + brand.hashCode();
+  }
+
+  private static int mix(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,50 @@
+package gestisimal.business;
+
+import java.io.IOException;
+import javax.xml.parsers.ParserConfigurationException;
+import org.xml.sax.SAXException;
+
+/**
+ * Almacén en memoria que guarda los artículos por columnas de tipos primitivos en vez de como
+ * objetos.
+ *
+ * Cada artículo ocupa una posición de varios arrays y las marcas se guardan una sola vez, lo que
+ * reduce mucho la memoria y el trabajo del recolector con millones de artículos. A cambio,
+ * {@link #get(int)} y el resto de consultas devuelven vistas que se crean en cada llamada y
+ * leen los datos del almacén. Como {@link Warehouse}, no se puede compartir entre hilos.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+public class CompactWarehouse extends Warehouse {
+
+  /**
+   * Crea un almacén compacto vacío.
+   */
+  public CompactWarehouse() {
+    this(new StringDictionary());
+  }
+
+  private CompactWarehouse(StringDictionary brands) {
+    super(new CompactArticleStore(brands), brands);
+  }
+
+  /**
+   * Crea un almacén compacto cargando un fichero XML, JSON o binario, con sus cambios y su
+   * diario si los tiene.
+   *
+   * @param file Archivo
+   * @throws IOException
+   * @throws ParserConfigurationException
+   * @throws SAXException
+   */
+  public CompactWarehouse(String file)
+      throws IOException, ParserConfigurationException, SAXException {
+    this(new StringDictionary(), file);
+  }
+
+  private CompactWarehouse(StringDictionary brands, String file)
+      throws IOException, ParserConfigurationException, SAXException {
+    super(new CompactArticleStore(brands), brands, file);
+  }
+}
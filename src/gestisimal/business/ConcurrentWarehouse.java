@@ -0,0 +1,403 @@
+package gestisimal.business;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import org.xml.sax.SAXException;
+
+/**
+ * Almacén que puede compartirse entre varios hilos.
+ *
+ * Las operaciones que cambian el conjunto de artículos (añadir, modificar, borrar) se excluyen
+ * entre sí con un cerrojo de lectura y escritura. Los movimientos de stock solo toman el cerrojo
+ * de lectura y cambian las unidades del artículo con compare-and-set, de modo que movimientos
+ * sobre artículos distintos no compiten entre sí y los del mismo artículo no pierden unidades.
+ * Las valoraciones del inventario solo toman el cerrojo de lectura y no paran los movimientos:
+ * {@link InventoryValuation} vuelve a leer sus totales si se cruzan con un movimiento a medias.
+ * Solo la primera, que recorre los artículos para calcular los totales, toma el de escritura.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+public class ConcurrentWarehouse extends Warehouse {
+
+  /**
+   * Cerrojo sobre el conjunto de artículos
+   */
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Crea un almacén concurrente vacío.
+   */
+  public ConcurrentWarehouse() {}
+
+  /**
+   * Crea un almacén concurrente cargando un fichero XML o JSON
+   *
+   * @param file Archivo
+   * @throws IOException
+   * @throws ParserConfigurationException
+   * @throws SAXException
+   */
+  public ConcurrentWarehouse(String file)
+      throws IOException, ParserConfigurationException, SAXException {
+    super(file);
+  }
+
+  @Override
+  public void add(String name, String brand, int numberUnits, double purchasePrice,
+      double sellingPrice, int safetyStock, int maxStock) throws PreviouslyEnteredArticleException {
+    lock.writeLock().lock();
+    try {
+      super.add(name, brand, numberUnits, purchasePrice, sellingPrice, safetyStock, maxStock);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void remove(int code) throws WarehouseArticleNotExistsException {
+    lock.writeLock().lock();
+    try {
+      super.remove(code);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void increaseStock(int code, int units) throws WarehouseArticleNotExistsException {
+    lock.readLock().lock();
+    try {
+      super.increaseStock(code, units);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void decreaseStock(int code, int units)
+      throws StockException, WarehouseArticleNotExistsException {
+    lock.readLock().lock();
+    try {
+      super.decreaseStock(code, units);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Aplica un lote de movimientos de stock. El lote excluye al resto de operaciones para que
+   * nadie vea los movimientos a medias si hay que deshacerlos.
+   */
+  @Override
+  public int[] applyMovements(List<StockMovement> movements)
+      throws StockException, WarehouseArticleNotExistsException {
+    lock.writeLock().lock();
+    try {
+      return super.applyMovements(movements);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void modify(int code, String name, String brand, int numberUnits, double purchasePrice,
+      double sellingPrice, int safetyStock, int maxStock)
+      throws WarehouseArticleNotExistsException, PreviouslyEnteredArticleException {
+    lock.writeLock().lock();
+    try {
+      super.modify(code, name, brand, numberUnits, purchasePrice, sellingPrice, safetyStock,
+          maxStock);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Article get(int code) {
+    lock.readLock().lock();
+    try {
+      return super.get(code);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Article findByNameAndBrand(String name, String brand) {
+    lock.readLock().lock();
+    try {
+      return super.findByNameAndBrand(name, brand);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Guarda el almacén en un fichero. Los movimientos de stock esperan a que termine el guardado
+   * para que el fichero refleje un único instante del almacén.
+   */
+  @Override
+  public void saveFile(String file)
+      throws ParserConfigurationException, IOException, TransformerException {
+    lock.writeLock().lock();
+    try {
+      super.saveFile(file);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Guarda el almacén en segundo plano. Solo se excluye al resto de operaciones mientras se toma
+   * la copia de los artículos, no mientras se escribe.
+   */
+  @Override
+  public CompletableFuture<Void> saveFileAsync(String file) {
+    lock.writeLock().lock();
+    try {
+      return super.saveFileAsync(file);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void saveDelta(String file)
+      throws ParserConfigurationException, IOException, TransformerException {
+    lock.writeLock().lock();
+    try {
+      super.saveDelta(file);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void enableJournal(String file)
+      throws ParserConfigurationException, IOException, TransformerException {
+    lock.writeLock().lock();
+    try {
+      super.enableJournal(file);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void sync() throws IOException {
+    lock.readLock().lock();
+    try {
+      super.sync();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      super.close();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return super.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Valuation valuation() {
+    return valuate(super::valuation);
+  }
+
+  @Override
+  public Valuation valuation(String brand) {
+    return valuate(() -> super.valuation(brand));
+  }
+
+  @Override
+  public Map<String, Valuation> valuationByBrand() {
+    return valuate(super::valuationByBrand);
+  }
+
+  /**
+   * Pide una valoración bajo el cerrojo de lectura, o bajo el de escritura si es la primera y
+   * tiene que recorrer los artículos sin que se muevan sus unidades
+   */
+  private <T> T valuate(Supplier<T> valuation) {
+    Lock held = valuationReady() ? lock.readLock() : lock.writeLock();
+    held.lock();
+    try {
+      return valuation.get();
+    } finally {
+      held.unlock();
+    }
+  }
+
+  @Override
+  public List<Article> bySellingPrice(double min, double max) {
+    lock.readLock().lock();
+    try {
+      return super.bySellingPrice(min, max);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<Article> byPurchasePrice(double min, double max) {
+    lock.readLock().lock();
+    try {
+      return super.byPurchasePrice(min, max);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<Article> byNumberUnits(int min, int max) {
+    lock.readLock().lock();
+    try {
+      return super.byNumberUnits(min, max);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<Article> topByNumberUnits(int n) {
+    lock.readLock().lock();
+    try {
+      return super.topByNumberUnits(n);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<Article> byNamePrefix(String prefix) {
+    lock.readLock().lock();
+    try {
+      return super.byNamePrefix(prefix);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<Article> byBrandPrefix(String prefix) {
+    lock.readLock().lock();
+    try {
+      return super.byBrandPrefix(prefix);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Recorre una copia de la lista de artículos tomada bajo el cerrojo de lectura, porque el
+   * stream se evalúa después de soltarlo. Las consultas de {@link #query()} no copian nada: se
+   * evalúan enteras bajo el cerrojo.
+   */
+  @Override
+  public Stream<Article> stream() {
+    return read(() -> super.stream().collect(Collectors.toList())).stream();
+  }
+
+  @Override
+  <T> T read(Supplier<T> query) {
+    lock.readLock().lock();
+    try {
+      return super.read(query);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<Article> belowSafetyStock() {
+    lock.readLock().lock();
+    try {
+      return super.belowSafetyStock();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<Article> aboveMaxStock() {
+    lock.readLock().lock();
+    try {
+      return super.aboveMaxStock();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Añade un receptor de los avisos de stock. El primero calcula los avisos recorriendo los
+   * artículos, así que no puede ir a la vez que un alta o una baja.
+   */
+  @Override
+  public void addStockAlertListener(StockAlertListener listener) {
+    lock.readLock().lock();
+    try {
+      super.addStockAlertListener(listener);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void removeStockAlertListener(StockAlertListener listener) {
+    lock.readLock().lock();
+    try {
+      super.removeStockAlertListener(listener);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Escribe una página del listado de artículos. Mientras se escribe no se pueden añadir,
+   * modificar ni borrar artículos, pero sí mover stock, así que las unidades de cada línea son
+   * las del momento en que se escribe.
+   */
+  @Override
+  public int report(Appendable out, int offset, int limit) throws IOException {
+    lock.readLock().lock();
+    try {
+      return super.report(out, offset, limit);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public String toString() {
+    lock.readLock().lock();
+    try {
+      return super.toString();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+}
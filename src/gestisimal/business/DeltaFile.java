@@ -0,0 +1,235 @@
+package gestisimal.business;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Fichero de cambios de una copia del almacén ({@code fichero.delta}).
+ *
+ * Cada guardado incremental añade al final un bloque con los artículos borrados, modificados y
+ * añadidos desde el guardado anterior, de modo que guardar cuesta lo que ocupen los cambios y no
+ * lo que ocupe el almacén. Al cargar se aplican los bloques en orden sobre la copia.
+ *
+ * La cabecera identifica la copia a la que acompañan los cambios (por su tamaño y su fecha de
+ * modificación), así que si la copia se vuelve a guardar entera los cambios viejos dejan de
+ * aplicarse. Cada bloque lleva su longitud y su CRC32, y la carga se detiene en el primero
+ * incompleto o dañado.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class DeltaFile {
+
+  /**
+   * Aplicación de un bloque de cambios
+   */
+  interface Applier {
+
+    /**
+     * Aplica un bloque de cambios
+     *
+     * @param removed Códigos de los artículos borrados
+     * @param changed Artículos modificados, con sus datos nuevos
+     * @param added Artículos añadidos
+     */
+    void apply(int[] removed, List<Article> changed, List<Article> added);
+  }
+
+  /**
+   * Número mágico del fichero ("GSMD")
+   */
+  private static final int MAGIC = 0x47534D44;
+  /**
+   * Tamaño de la cabecera en bytes
+   */
+  private static final int HEADER_SIZE = 4 + 8 + 8;
+
+  private DeltaFile() {}
+
+  /**
+   * Devuelve el fichero de cambios de una copia del almacén
+   *
+   * @param file Copia del almacén
+   * @return Fichero de cambios
+   */
+  static Path pathOf(String file) {
+    return Paths.get(file + ".delta");
+  }
+
+  /**
+   * Devuelve lo que ocupan los cambios de una copia del almacén
+   *
+   * @param file Copia del almacén
+   * @return Bytes del fichero de cambios, o 0 si no hay
+   * @throws IOException
+   */
+  static long size(String file) throws IOException {
+    Path path = pathOf(file);
+    return Files.exists(path) ? Files.size(path) : 0;
+  }
+
+  /**
+   * Borra los cambios de una copia del almacén, después de guardarla entera
+   *
+   * @param file Copia del almacén
+   * @throws IOException
+   */
+  static void delete(String file) throws IOException {
+    Files.deleteIfExists(pathOf(file));
+  }
+
+  /**
+   * Añade un bloque de cambios y lo fuerza a disco
+   *
+   * @param file Copia del almacén
+   * @param removed Códigos de los artículos borrados
+   * @param changed Artículos modificados
+   * @param added Artículos añadidos
+   * @throws IOException
+   */
+  static void append(String file, int[] removed, List<Article> changed, List<Article> added)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0);
+    out.writeInt(0);
+    out.writeInt(removed.length);
+    for (int code : removed) {
+      out.writeInt(code);
+    }
+    writeArticles(out, changed);
+    writeArticles(out, added);
+    out.flush();
+
+    ByteBuffer block = ByteBuffer.wrap(bytes.toByteArray());
+    CRC32 crc = new CRC32();
+    crc.update(block.array(), 8, block.capacity() - 8);
+    block.putInt(0, block.capacity() - 8).putInt(4, (int) crc.getValue());
+
+    try (FileChannel channel = FileChannel.open(pathOf(file), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      if (!matches(channel, Paths.get(file))) {
+        channel.truncate(0);
+        ByteBuffer header = header(Paths.get(file));
+        while (header.hasRemaining()) {
+          channel.write(header);
+        }
+      }
+      channel.position(channel.size());
+      while (block.hasRemaining()) {
+        channel.write(block);
+      }
+      channel.force(false);
+    }
+  }
+
+  /**
+   * Aplica los cambios de una copia del almacén, si los tiene y son de esa copia. Los bloques
+   * incompletos o dañados del final se descartan.
+   *
+   * @param file Copia del almacén
+   * @param applier Destino de cada bloque de cambios
+   * @throws IOException
+   */
+  static void replay(String file, Applier applier) throws IOException {
+    Path path = pathOf(file);
+    if (!Files.exists(path)) {
+      return;
+    }
+    ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+    if (in.remaining() < HEADER_SIZE || !in.slice().limit(HEADER_SIZE)
+        .equals(header(Paths.get(file)))) {
+      Files.delete(path);
+      return;
+    }
+    in.position(HEADER_SIZE);
+    CRC32 crc = new CRC32();
+    while (in.remaining() >= 8) {
+      int start = in.position();
+      int size = in.getInt();
+      int checksum = in.getInt();
+      if (size <= 0 || size > in.remaining()) {
+        in.position(start);
+        break;
+      }
+      crc.reset();
+      crc.update(in.array(), in.position(), size);
+      if ((int) crc.getValue() != checksum) {
+        in.position(start);
+        break;
+      }
+      DataInputStream block =
+          new DataInputStream(new ByteArrayInputStream(in.array(), in.position(), size));
+      in.position(in.position() + size);
+      int[] removed = new int[block.readInt()];
+      for (int i = 0; i < removed.length; i++) {
+        removed[i] = block.readInt();
+      }
+      List<Article> changed = readArticles(block);
+      applier.apply(removed, changed, readArticles(block));
+    }
+    if (in.position() < in.capacity()) {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+        channel.truncate(in.position());
+      }
+    }
+  }
+
+  /**
+   * Cabecera que identifica una copia del almacén
+   */
+  private static ByteBuffer header(Path snapshot) throws IOException {
+    return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putLong(Files.size(snapshot))
+        .putLong(Files.getLastModifiedTime(snapshot).toMillis()).flip();
+  }
+
+  private static boolean matches(FileChannel channel, Path snapshot) throws IOException {
+    ByteBuffer current = ByteBuffer.allocate(HEADER_SIZE);
+    while (current.hasRemaining()) {
+      if (channel.read(current, current.position()) < 0) {
+        return false;
+      }
+    }
+    return current.flip().equals(header(snapshot));
+  }
+
+  private static void writeArticles(DataOutputStream out, List<Article> articles)
+      throws IOException {
+    out.writeInt(articles.size());
+    for (Article article : articles) {
+      out.writeInt(article.getCode());
+      out.writeUTF(article.getName());
+      out.writeUTF(article.getBrand());
+      out.writeInt(article.getNumberUnits());
+      out.writeDouble(article.getPurchasePrice());
+      out.writeDouble(article.getSellingPrice());
+      out.writeInt(article.getSafetyStock());
+      out.writeInt(article.getMaxStock());
+    }
+  }
+
+  private static List<Article> readArticles(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    List<Article> articles = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int code = in.readInt();
+      String name = in.readUTF();
+      String brand = in.readUTF();
+      articles.add(new Article(code, name, brand, in.readInt(), in.readDouble(),
+          in.readDouble(), in.readInt(), in.readInt()));
+    }
+    return articles;
+  }
+}
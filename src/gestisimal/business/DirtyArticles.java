@@ -0,0 +1,111 @@
+package gestisimal.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Códigos de los artículos que han cambiado desde la última copia del almacén, separados en
+ * añadidos, modificados y borrados. Un artículo añadido y borrado después de la copia no deja
+ * rastro. Admite que varios hilos anoten cambios a la vez.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class DirtyArticles {
+
+  private static final Byte ADDED = 1;
+  private static final Byte CHANGED = 2;
+  private static final Byte REMOVED = 3;
+
+  /**
+   * Estado de cada artículo cambiado, por código
+   */
+  private final Map<Integer, Byte> states = new ConcurrentHashMap<>();
+
+  /**
+   * Anota que se ha añadido un artículo
+   *
+   * @param code Código del artículo
+   */
+  void added(int code) {
+    states.merge(code, ADDED, (old, added) -> old == REMOVED ? CHANGED : old);
+  }
+
+  /**
+   * Anota que ha cambiado un artículo
+   *
+   * @param code Código del artículo
+   */
+  void changed(int code) {
+    if (states.get(code) == null) {
+      states.putIfAbsent(code, CHANGED);
+    }
+  }
+
+  /**
+   * Anota que se ha borrado un artículo
+   *
+   * @param code Código del artículo
+   */
+  void removed(int code) {
+    states.compute(code, (key, old) -> old == ADDED ? null : REMOVED);
+  }
+
+  /**
+   * Comprueba si no ha cambiado nada
+   *
+   * @return true si no hay cambios
+   */
+  boolean isEmpty() {
+    return states.isEmpty();
+  }
+
+  /**
+   * Devuelve los códigos de los artículos borrados
+   *
+   * @return Códigos borrados
+   */
+  int[] removedCodes() {
+    return states.entrySet().stream().filter(e -> e.getValue() == REMOVED)
+        .mapToInt(Map.Entry::getKey).toArray();
+  }
+
+  /**
+   * Devuelve los códigos de los artículos modificados que ya estaban en la copia
+   *
+   * @return Códigos modificados
+   */
+  List<Integer> changedCodes() {
+    return codes(CHANGED);
+  }
+
+  /**
+   * Devuelve los códigos de los artículos añadidos después de la copia, en orden de código
+   *
+   * @return Códigos añadidos
+   */
+  List<Integer> addedCodes() {
+    List<Integer> codes = codes(ADDED);
+    codes.sort(null);
+    return codes;
+  }
+
+  /**
+   * Olvida los cambios, después de guardarlos
+   */
+  void clear() {
+    states.clear();
+  }
+
+  private List<Integer> codes(Byte state) {
+    List<Integer> codes = new ArrayList<>();
+    states.forEach((code, s) -> {
+      if (s == state) {
+        codes.add(code);
+      }
+    });
+    return codes;
+  }
+}
@@ -0,0 +1,291 @@
+package gestisimal.business;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Totales del inventario, en conjunto y por marca, que se actualizan con cada cambio de un
+ * artículo en vez de recorrer el almacén cada vez que se piden.
+ *
+ * Los artículos con precios en céntimos exactos se suman en céntimos, sin errores de redondeo
+ * por muchas altas y bajas que haya; solo los demás se suman como {@code double}. Los totales de
+ * cada marca se guardan en un array por el número de la marca en el diccionario de marcas del
+ * almacén, así que sumar un cambio no busca la marca por su texto. Los movimientos de stock solo
+ * suman unidades por su precio, así que varios hilos pueden moverlo a la vez. Las altas, bajas y
+ * modificaciones cambian además la lista de marcas y no pueden ir a la vez que otros cambios,
+ * igual que en el resto del almacén.
+ *
+ * Cada total se suma por separado, así que las valoraciones cuentan los movimientos empezados y
+ * terminados: si mientras se leen los totales empieza o está a medias algún movimiento, se
+ * vuelven a leer. Si tras varios intentos siguen llegando movimientos, los nuevos esperan a que
+ * termine la valoración, que así no se queda sin leer nunca.
+ *
+ * Como los índices de {@link ArticleIndexes}, los totales no se calculan hasta la primera vez
+ * que se piden, así que abrir un almacén grande, como {@link MappedWarehouse}, no recorre sus
+ * artículos ni guarda en el diccionario sus marcas; hasta entonces los cambios de los artículos
+ * no hacen nada aquí.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class InventoryValuation {
+
+  /**
+   * Totales de un conjunto de artículos
+   */
+  private static class Totals {
+    final LongAdder articles = new LongAdder();
+    final LongAdder numberUnits = new LongAdder();
+    final LongAdder purchaseCents = new LongAdder();
+    final LongAdder sellingCents = new LongAdder();
+    /**
+     * Artículos con algún precio que no es un número exacto de céntimos
+     */
+    final LongAdder inexact = new LongAdder();
+    /**
+     * Valor de los artículos de {@link #inexact}
+     */
+    final DoubleAdder purchaseValue = new DoubleAdder();
+    final DoubleAdder sellingValue = new DoubleAdder();
+
+    void add(Article article, int units, int count) {
+      articles.add(count);
+      numberUnits.add(units);
+      long purchase = article.getPurchaseCents();
+      long selling = article.getSellingCents();
+      if (purchase != Cents.NONE && selling != Cents.NONE) {
+        purchaseCents.add(units * purchase);
+        sellingCents.add(units * selling);
+      } else {
+        inexact.add(count);
+        purchaseValue.add(units * article.getPurchasePrice());
+        sellingValue.add(units * article.getSellingPrice());
+      }
+    }
+
+    Valuation valuation() {
+      long purchase = purchaseCents.sum();
+      long selling = sellingCents.sum();
+      boolean exact = inexact.sum() == 0;
+      return new Valuation(articles.sum(), numberUnits.sum(),
+          Cents.toDouble(purchase) + (exact ? 0 : purchaseValue.sum()),
+          Cents.toDouble(selling) + (exact ? 0 : sellingValue.sum()),
+          exact ? purchase : Cents.NONE, exact ? selling : Cents.NONE);
+    }
+  }
+
+  /**
+   * Veces que una valoración lee los totales antes de hacer esperar a los movimientos
+   */
+  private static final int OPTIMISTIC_READS = 16;
+
+  private final Totals all = new Totals();
+  /**
+   * Movimientos de stock empezados y terminados
+   */
+  private final LongAdder movesStarted = new LongAdder();
+  private final LongAdder movesFinished = new LongAdder();
+  /**
+   * Valoraciones que hacen esperar a los movimientos nuevos
+   */
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final StringDictionary brandNames;
+  /**
+   * Totales por número de marca, null para las marcas sin artículos
+   */
+  private volatile Totals[] brands = new Totals[16];
+  /**
+   * Artículos del almacén, para calcular los totales
+   */
+  private final Iterable<Article> articles;
+  /**
+   * Si los totales están calculados y siguen los cambios de los artículos
+   */
+  private volatile boolean active;
+
+  /**
+   * Crea los totales, sin calcular hasta la primera vez que se piden
+   *
+   * @param articles Artículos del almacén
+   * @param brandNames Diccionario de marcas del almacén
+   */
+  InventoryValuation(Iterable<Article> articles, StringDictionary brandNames) {
+    this.articles = articles;
+    this.brandNames = brandNames;
+  }
+
+  /**
+   * Suma un artículo añadido, o el estado nuevo de un artículo modificado
+   *
+   * @param article Artículo
+   */
+  void added(Article article) {
+    if (!active) {
+      return;
+    }
+    int id = brandId(article);
+    Totals[] brands = this.brands;
+    if (id >= brands.length) {
+      brands = Arrays.copyOf(brands, Math.max(id + 1, brands.length * 2));
+      this.brands = brands;
+    }
+    if (brands[id] == null) {
+      brands[id] = new Totals();
+    }
+    brands[id].add(article, article.getNumberUnits(), 1);
+    all.add(article, article.getNumberUnits(), 1);
+  }
+
+  /**
+   * Resta un artículo borrado, o el estado anterior de un artículo que se va a modificar
+   *
+   * @param article Artículo, todavía con sus datos
+   */
+  void removed(Article article) {
+    if (!active) {
+      return;
+    }
+    int id = brandId(article);
+    Totals brand = brands[id];
+    brand.add(article, -article.getNumberUnits(), -1);
+    all.add(article, -article.getNumberUnits(), -1);
+    if (brand.articles.sum() == 0) {
+      brands[id] = null;
+    }
+  }
+
+  /**
+   * Suma un movimiento de stock
+   *
+   * @param article Artículo
+   * @param units Unidades que entran (positivas) o salen (negativas)
+   */
+  void stock(Article article, int units) {
+    if (!active) {
+      return;
+    }
+    while (waiting.get() > 0) {
+      Thread.onSpinWait();
+    }
+    movesStarted.increment();
+    try {
+      brands[brandId(article)].add(article, units, 0);
+      all.add(article, units, 0);
+    } finally {
+      movesFinished.increment();
+    }
+  }
+
+  /**
+   * Devuelve la valoración de todo el inventario
+   */
+  Valuation valuation() {
+    build();
+    return consistent(all::valuation);
+  }
+
+  /**
+   * Devuelve la valoración de una marca, vacía si no tiene artículos
+   */
+  Valuation valuation(String brand) {
+    build();
+    int id = brandNames.find(brand);
+    Totals[] brands = this.brands;
+    Totals totals = id >= 0 && id < brands.length ? brands[id] : null;
+    return totals == null ? Valuation.EMPTY : consistent(totals::valuation);
+  }
+
+  /**
+   * Devuelve la valoración de cada marca, ordenadas por marca
+   */
+  Map<String, Valuation> byBrand() {
+    build();
+    return consistent(() -> {
+      Map<String, Valuation> byBrand = new TreeMap<>();
+      Totals[] brands = this.brands;
+      for (int id = 0; id < brands.length; id++) {
+        if (brands[id] != null) {
+          byBrand.put(brandNames.valueOf(id), brands[id].valuation());
+        }
+      }
+      return byBrand;
+    });
+  }
+
+  /**
+   * Lee unos totales sin ningún movimiento de stock a medias, volviendo a leerlos si alguno
+   * empieza o termina mientras tanto
+   *
+   * @param read Lectura de los totales
+   * @return Totales leídos
+   */
+  private <T> T consistent(Supplier<T> read) {
+    for (int i = 0; i < OPTIMISTIC_READS; i++) {
+      T totals = tryRead(read);
+      if (totals != null) {
+        return totals;
+      }
+      Thread.onSpinWait();
+    }
+    waiting.incrementAndGet();
+    try {
+      while (true) {
+        T totals = tryRead(read);
+        if (totals != null) {
+          return totals;
+        }
+        Thread.onSpinWait();
+      }
+    } finally {
+      waiting.decrementAndGet();
+    }
+  }
+
+  /**
+   * Lee unos totales una vez. Los terminados se cuentan antes y los empezados después: si
+   * coinciden, ningún movimiento estaba a medias ni empezó mientras se leían.
+   *
+   * @return Totales leídos, o null si algún movimiento se ha cruzado con la lectura
+   */
+  private <T> T tryRead(Supplier<T> read) {
+    long finished = movesFinished.sum();
+    T totals = read.get();
+    return movesStarted.sum() == finished ? totals : null;
+  }
+
+  /**
+   * Devuelve si los totales ya están calculados
+   */
+  boolean ready() {
+    return active;
+  }
+
+  /**
+   * Calcula los totales la primera vez que se piden. Quien los pide excluye cualquier otro
+   * cambio del almacén mientras tanto, movimientos incluidos, así que basta con recorrer los
+   * artículos.
+   */
+  private synchronized void build() {
+    if (active) {
+      return;
+    }
+    active = true;
+    for (Article article : articles) {
+      added(article);
+    }
+  }
+
+  /**
+   * Devuelve el número de la marca de un artículo, buscándola en el diccionario si el artículo
+   * no lo guarda, como las vistas de {@link MappedArticleStore}
+   */
+  private int brandId(Article article) {
+    int id = article.getBrandId();
+    return id >= 0 ? id : brandNames.idOf(article.getBrand());
+  }
+}
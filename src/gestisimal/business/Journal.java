@@ -0,0 +1,622 @@
+package gestisimal.business;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Diario de escritura anticipada de las operaciones de un almacén.
+ *
+ * Cada operación que cambia el almacén se añade al final del diario ({@code fichero.journal}),
+ * de modo que tras una caída basta con cargar la última copia del almacén y repetir lo que haya
+ * en el diario. Las operaciones se acumulan en memoria y un hilo las escribe en bloque y las
+ * fuerza a disco cada pocos milisegundos (commit en grupo), así que una sola sincronización con
+ * el disco cubre todas las operaciones de ese intervalo.
+ *
+ * Por eso una operación anotada no está aún en disco cuando vuelve el método del almacén que la
+ * hizo: si la máquina se cae, se pueden perder las operaciones de los últimos
+ * {@link #GROUP_COMMIT_MILLIS} milisegundos. Quien necesite que estén en disco antes de seguir
+ * debe llamar a {@link #flush()} ({@link Warehouse#sync()}).
+ *
+ * La cabecera del diario identifica la copia del almacén sobre la que se empezó a escribir (por
+ * su tamaño, su fecha de modificación y lo que ocupan sus cambios en {@link DeltaFile}): si la
+ * copia ha cambiado, el diario ya está incluido en ella y no se repite. Mientras se guarda una
+ * copia nueva, la cabecera identifica también esa copia y la posición del primer registro que no
+ * incluye, así que el diario sirve con cualquiera de las dos copias si el guardado se interrumpe.
+ * Cada registro lleva su longitud y su CRC32, y la recuperación se detiene en el primer registro
+ * incompleto o dañado.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class Journal implements Closeable {
+
+  /**
+   * Operaciones del diario que se repiten al recuperar un almacén
+   */
+  interface Replayer {
+
+    /**
+     * Añade un artículo con su código
+     *
+     * @param article Artículo
+     */
+    void add(Article article);
+
+    /**
+     * Modifica un artículo
+     *
+     * @param article Artículo con el código y los datos nuevos
+     */
+    void modify(Article article);
+
+    /**
+     * Borra un artículo
+     *
+     * @param code Código del artículo
+     */
+    void remove(int code);
+
+    /**
+     * Cambia el stock de un artículo
+     *
+     * @param code Código del artículo
+     * @param units Unidades que entran (positivas) o salen (negativas)
+     */
+    void stock(int code, int units);
+  }
+
+  /**
+   * Número mágico del diario ("GSMJ")
+   */
+  private static final int MAGIC = 0x47534D4A;
+  /**
+   * Tamaño de la cabecera en bytes
+   */
+  private static final int HEADER_SIZE = 4 + 3 * 8 + 3 * 8 + 8;
+  /**
+   * Posición en la cabecera de la copia que se está guardando
+   */
+  private static final int NEXT_SNAPSHOT = 4 + 3 * 8;
+  /**
+   * Milisegundos entre escrituras del commit en grupo
+   */
+  private static final long GROUP_COMMIT_MILLIS = 5;
+  /**
+   * Bytes pendientes a partir de los que se escribe sin esperar al intervalo
+   */
+  private static final int EAGER_FLUSH_BYTES = 1 << 18;
+
+  private static final byte ADD = 1;
+  private static final byte MODIFY = 2;
+  private static final byte REMOVE = 3;
+  private static final byte STOCK = 4;
+  private static final byte MOVEMENTS = 5;
+
+  /**
+   * Copia del almacén a la que acompaña el diario
+   */
+  private final Path snapshot;
+  /**
+   * Canal del fichero del diario, que siempre está colocado al final
+   */
+  private FileChannel channel;
+  /**
+   * Posición lógica de la primera operación que queda en el fichero. Las posiciones lógicas no
+   * cambian al recortar el diario.
+   */
+  private long base;
+  /**
+   * Hilo que escribe las operaciones pendientes
+   */
+  private final Thread flusher;
+  /**
+   * Cerrojo que ordena las escrituras en el fichero
+   */
+  private final Object flushLock = new Object();
+  /**
+   * Operaciones pendientes de escribir
+   */
+  private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+  /**
+   * Búfer ya escrito que pasa a ser el de las operaciones pendientes en la siguiente escritura,
+   * para no crear uno nuevo en cada commit en grupo
+   */
+  private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+  /**
+   * Error de la última escritura en segundo plano
+   */
+  private IOException failure;
+  /**
+   * Si el diario se ha cerrado
+   */
+  private volatile boolean closed;
+
+  private Journal(Path snapshot, FileChannel channel) {
+    this.snapshot = snapshot;
+    this.channel = channel;
+    this.flusher = new Thread(this::flushPeriodically, "journal-" + snapshot.getFileName());
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  /**
+   * Devuelve el fichero del diario de una copia del almacén
+   *
+   * @param file Copia del almacén
+   * @return Fichero del diario
+   */
+  static Path pathOf(String file) {
+    return Paths.get(file + ".journal");
+  }
+
+  /**
+   * Empieza un diario vacío para una copia del almacén recién guardada
+   *
+   * @param file Copia del almacén
+   * @return Diario abierto
+   * @throws IOException
+   */
+  static Journal create(String file) throws IOException {
+    // Un diario anterior del mismo fichero ya no vale para la copia nueva: se vacía
+    FileChannel channel = FileChannel.open(pathOf(file), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    Journal journal = new Journal(Paths.get(file), channel);
+    write(channel, journal.header());
+    channel.force(false);
+    return journal;
+  }
+
+  /**
+   * Abre el diario de una copia del almacén y repite las operaciones que no estén ya en la
+   * copia. Si la copia es más nueva que el diario, se empieza un diario vacío.
+   *
+   * @param file Copia del almacén
+   * @param replayer Destino de las operaciones del diario
+   * @return Diario abierto, listo para seguir añadiendo operaciones
+   * @throws IOException
+   */
+  static Journal recover(String file, Replayer replayer) throws IOException {
+    Path path = pathOf(file);
+    ByteBuffer current = fingerprint(Paths.get(file), DeltaFile.size(file));
+    long start;
+    long valid;
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      byte[] header = in.readNBytes(HEADER_SIZE);
+      ByteBuffer fields = ByteBuffer.wrap(header);
+      if (header.length < HEADER_SIZE || fields.getInt() != MAGIC) {
+        return create(file);
+      }
+      if (fields.slice().limit(current.capacity()).equals(current)) {
+        start = HEADER_SIZE;
+      } else if (fields.position(NEXT_SNAPSHOT).slice().limit(current.capacity())
+          .equals(current)) {
+        start = Math.min(fields.getLong(HEADER_SIZE - 8), Files.size(path));
+        in.skipNBytes(start - HEADER_SIZE);
+      } else {
+        return create(file);
+      }
+      valid = start + replay(in, replayer);
+    }
+    FileChannel channel =
+        FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    channel.truncate(valid);
+    channel.position(valid);
+    Journal journal = new Journal(Paths.get(file), channel);
+    if (start != HEADER_SIZE) {
+      journal.checkpoint(start - HEADER_SIZE);
+    }
+    return journal;
+  }
+
+  /**
+   * Comprueba si el diario acompaña a la copia del almacén indicada
+   *
+   * @param file Copia del almacén
+   * @return true si es la copia del diario
+   */
+  boolean covers(String file) {
+    return snapshot.toAbsolutePath().normalize()
+        .equals(Paths.get(file).toAbsolutePath().normalize());
+  }
+
+  /**
+   * Devuelve la posición lógica que tendrá la siguiente operación anotada. Las operaciones
+   * anteriores son las que incluirá una copia tomada ahora.
+   *
+   * @return Posición de la siguiente operación
+   * @throws IOException
+   */
+  long mark() throws IOException {
+    synchronized (flushLock) {
+      synchronized (this) {
+        return base + channel.size() - HEADER_SIZE + pending.position();
+      }
+    }
+  }
+
+  /**
+   * Anota en la cabecera la copia nueva que está a punto de sustituir a la actual, antes de
+   * sustituirla
+   *
+   * @param next Copia nueva, ya escrita entera
+   * @param mark Posición de la primera operación que no incluye la copia nueva
+   * @return false si el diario ya está cerrado y la copia nueva no se puede anotar, en cuyo caso
+   *         no debe sustituir a la actual
+   * @throws IOException
+   */
+  boolean prepareCheckpoint(Path next, long mark) throws IOException {
+    synchronized (flushLock) {
+      if (closed) {
+        return false;
+      }
+      flush();
+      ByteBuffer slot = ByteBuffer.allocate(HEADER_SIZE - NEXT_SNAPSHOT)
+          .put(fingerprint(next, 0)).putLong(position(mark)).flip();
+      while (slot.hasRemaining()) {
+        channel.write(slot, NEXT_SNAPSHOT + slot.position());
+      }
+      channel.force(false);
+      return true;
+    }
+  }
+
+  /**
+   * Quita del diario las operaciones que ya están en la copia del almacén, después de guardar
+   * una copia nueva o sus cambios
+   *
+   * @param mark Posición lógica de la primera operación que no incluye la copia
+   * @throws IOException
+   */
+  void checkpoint(long mark) throws IOException {
+    synchronized (flushLock) {
+      if (closed) {
+        return;
+      }
+      flush();
+      long start = position(mark);
+      ByteBuffer tail = ByteBuffer.allocate((int) (channel.size() - start));
+      while (tail.hasRemaining()) {
+        channel.read(tail, start + tail.position());
+      }
+      Path path = pathOf(snapshot.toString());
+      Path temp = WireHousePersistence.createTemporary(path);
+      try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        write(out, header());
+        write(out, tail.flip());
+        out.force(false);
+      }
+      Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+      FileChannel reopened =
+          FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      reopened.position(reopened.size());
+      channel.close();
+      channel = reopened;
+      base += start - HEADER_SIZE;
+    }
+  }
+
+  /**
+   * Convierte una posición lógica en una posición del fichero
+   */
+  private long position(long mark) throws IOException {
+    return Math.min(Math.max(mark - base + HEADER_SIZE, HEADER_SIZE), channel.size());
+  }
+
+  /**
+   * Vacía el diario después de guardar los cambios del almacén, que incluyen todas sus
+   * operaciones
+   *
+   * @throws IOException
+   */
+  void checkpoint() throws IOException {
+    checkpoint(mark());
+  }
+
+  /**
+   * Anota que se ha añadido un artículo. Como el resto de operaciones, se escribe en disco en el
+   * siguiente commit en grupo, no antes de volver.
+   *
+   * @param article Artículo añadido
+   */
+  void logAdd(Article article) {
+    logArticle(ADD, article);
+  }
+
+  /**
+   * Anota que se ha modificado un artículo
+   *
+   * @param article Artículo con sus datos nuevos
+   */
+  void logModify(Article article) {
+    logArticle(MODIFY, article);
+  }
+
+  /**
+   * Anota que se ha borrado un artículo
+   *
+   * @param code Código del artículo
+   */
+  synchronized void logRemove(int code) {
+    int start = beginRecord(5);
+    pending.put(REMOVE).putInt(code);
+    endRecord(start);
+  }
+
+  /**
+   * Anota un movimiento de stock
+   *
+   * @param code Código del artículo
+   * @param units Unidades que entran (positivas) o salen (negativas)
+   */
+  synchronized void logStock(int code, int units) {
+    int start = beginRecord(9);
+    pending.put(STOCK).putInt(code).putInt(units);
+    endRecord(start);
+  }
+
+  /**
+   * Anota un lote de movimientos de stock en un solo registro, para que al recuperar se repita
+   * entero o nada
+   *
+   * @param movements Movimientos de stock
+   */
+  synchronized void logMovements(List<StockMovement> movements) {
+    int start = beginRecord(5 + 8 * movements.size());
+    pending.put(MOVEMENTS).putInt(movements.size());
+    for (StockMovement movement : movements) {
+      pending.putInt(movement.getCode()).putInt(movement.getUnits());
+    }
+    endRecord(start);
+  }
+
+  /**
+   * Escribe y fuerza a disco las operaciones pendientes sin esperar al siguiente commit en grupo.
+   * Al volver, todas las operaciones anotadas antes están en disco.
+   *
+   * @throws IOException
+   */
+  void flush() throws IOException {
+    synchronized (flushLock) {
+      ByteBuffer batch;
+      synchronized (this) {
+        if (failure != null) {
+          throw failure;
+        }
+        if (pending.position() == 0) {
+          return;
+        }
+        batch = pending;
+        pending = spare;
+        spare = null;
+      }
+      try {
+        batch.flip();
+        while (batch.hasRemaining()) {
+          channel.write(batch);
+        }
+        channel.force(false);
+      } finally {
+        synchronized (this) {
+          spare = batch.clear();
+        }
+      }
+    }
+  }
+
+  /**
+   * Escribe las operaciones pendientes y cierra el diario. Se espera a que el hilo de escritura
+   * termine la escritura que esté haciendo, sin interrumpirlo: el canal del fichero se cierra si
+   * se interrumpe un hilo que escribe en él, y se perderían las operaciones de esa escritura.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    synchronized (this) {
+      notifyAll();
+    }
+    boolean interrupted = false;
+    while (flusher.isAlive()) {
+      try {
+        flusher.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    try {
+      synchronized (flushLock) {
+        try {
+          flush();
+        } finally {
+          channel.close();
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private synchronized void logArticle(byte op, Article article) {
+    byte[] name = article.getName().getBytes(StandardCharsets.UTF_8);
+    byte[] brand = article.getBrand().getBytes(StandardCharsets.UTF_8);
+    int start = beginRecord(1 + 4 + 4 + name.length + 4 + brand.length + 4 + 8 + 8 + 4 + 4);
+    pending.put(op).putInt(article.getCode());
+    pending.putInt(name.length).put(name);
+    pending.putInt(brand.length).put(brand);
+    pending.putInt(article.getNumberUnits());
+    pending.putDouble(article.getPurchasePrice());
+    pending.putDouble(article.getSellingPrice());
+    pending.putInt(article.getSafetyStock());
+    pending.putInt(article.getMaxStock());
+    endRecord(start);
+  }
+
+  /**
+   * Reserva sitio para un registro y su cabecera (longitud y CRC32)
+   *
+   * @param size Tamaño del contenido del registro
+   * @return Posición donde empieza el registro
+   */
+  private int beginRecord(int size) {
+    if (failure != null) {
+      throw new UncheckedIOException(failure);
+    }
+    if (pending.remaining() < 8 + size) {
+      ByteBuffer bigger =
+          ByteBuffer.allocate(Math.max(2 * pending.capacity(), pending.position() + 8 + size));
+      pending.flip();
+      pending = bigger.put(pending);
+    }
+    int start = pending.position();
+    pending.position(start + 8);
+    return start;
+  }
+
+  /**
+   * Rellena la cabecera del registro que empieza en la posición indicada
+   */
+  private void endRecord(int start) {
+    int size = pending.position() - start - 8;
+    CRC32 crc = new CRC32();
+    crc.update(pending.array(), start + 8, size);
+    pending.putInt(start, size).putInt(start + 4, (int) crc.getValue());
+    if (pending.position() >= EAGER_FLUSH_BYTES) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Cabecera que identifica la copia actual del almacén
+   */
+  private ByteBuffer header() throws IOException {
+    return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC)
+        .put(fingerprint(snapshot, DeltaFile.size(snapshot.toString()))).rewind();
+  }
+
+  /**
+   * Huella de una copia del almacén: su tamaño, su fecha de modificación y lo que ocupan sus
+   * cambios
+   */
+  private static ByteBuffer fingerprint(Path snapshot, long deltaSize) throws IOException {
+    return ByteBuffer.allocate(3 * 8).putLong(Files.size(snapshot))
+        .putLong(Files.getLastModifiedTime(snapshot).toMillis()).putLong(deltaSize).flip();
+  }
+
+  private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Bucle del hilo que escribe las operaciones pendientes
+   */
+  private void flushPeriodically() {
+    while (!closed) {
+      try {
+        synchronized (this) {
+          wait(GROUP_COMMIT_MILLIS);
+        }
+        flush();
+      } catch (InterruptedException e) {
+        return;
+      } catch (IOException e) {
+        synchronized (this) {
+          failure = e;
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Repite los registros del diario hasta el final o hasta el primero incompleto o dañado
+   *
+   * @return Bytes de registros válidos
+   */
+  private static long replay(DataInputStream in, Replayer replayer) throws IOException {
+    long valid = 0;
+    CRC32 crc = new CRC32();
+    while (true) {
+      byte[] record;
+      int checksum;
+      try {
+        int size = in.readInt();
+        checksum = in.readInt();
+        if (size <= 0) {
+          return valid;
+        }
+        record = in.readNBytes(size);
+        if (record.length < size) {
+          return valid;
+        }
+      } catch (EOFException e) {
+        return valid;
+      }
+      crc.reset();
+      crc.update(record);
+      if ((int) crc.getValue() != checksum) {
+        return valid;
+      }
+      apply(ByteBuffer.wrap(record), replayer);
+      valid += 8 + record.length;
+    }
+  }
+
+  private static void apply(ByteBuffer record, Replayer replayer) {
+    byte op = record.get();
+    switch (op) {
+      case ADD:
+        replayer.add(readArticle(record));
+        break;
+      case MODIFY:
+        replayer.modify(readArticle(record));
+        break;
+      case REMOVE:
+        replayer.remove(record.getInt());
+        break;
+      case STOCK:
+        replayer.stock(record.getInt(), record.getInt());
+        break;
+      case MOVEMENTS:
+        for (int count = record.getInt(); count > 0; count--) {
+          replayer.stock(record.getInt(), record.getInt());
+        }
+        break;
+      default:
+        throw new IllegalStateException("Operación desconocida en el diario: " + op);
+    }
+  }
+
+  private static Article readArticle(ByteBuffer record) {
+    int code = record.getInt();
+    String name = readString(record);
+    String brand = readString(record);
+    return new Article(code, name, brand, record.getInt(), record.getDouble(),
+        record.getDouble(), record.getInt(), record.getInt());
+  }
+
+  private static String readString(ByteBuffer record) {
+    byte[] bytes = new byte[record.getInt()];
+    record.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
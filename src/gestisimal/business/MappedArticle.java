@@ -0,0 +1,142 @@
+package gestisimal.business;
+
+/**
+ * Vista de un artículo guardado en una fila de un {@link MappedArticleStore}. No guarda ningún
+ * dato propio aparte del código: lee y escribe directamente en la proyección del fichero.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class MappedArticle extends Article {
+
+  /**
+   * Almacenamiento donde está el artículo
+   */
+  private final MappedArticleStore store;
+  /**
+   * Fila del artículo
+   */
+  private final int row;
+
+  /**
+   * Crea la vista de una fila.
+   *
+   * @param store Almacenamiento donde está el artículo
+   * @param row Fila del artículo
+   */
+  MappedArticle(MappedArticleStore store, int row) {
+    super(store.code(row));
+    this.store = store;
+    this.row = row;
+  }
+
+  /**
+   * Devuelve la fila del artículo.
+   *
+   * @return Fila del artículo
+   */
+  int row() {
+    return row;
+  }
+
+  @Override
+  int addUnits(int units) {
+    return store.addUnits(row, units);
+  }
+
+  @Override
+  int tryDecrease(int units) {
+    return store.tryDecrease(row, units);
+  }
+
+  @Override
+  public String getName() {
+    return store.name(row);
+  }
+
+  @Override
+  void setName(String name) {
+    throwsExceptionIfIncorrectFact(name);
+    store.setName(row, name);
+  }
+
+  @Override
+  public String getBrand() {
+    return store.brand(row);
+  }
+
+  @Override
+  void setBrand(String brand) {
+    throwsExceptionIfIncorrectFact(brand);
+    store.setBrand(row, brand);
+  }
+
+  @Override
+  public double getPurchasePrice() {
+    return store.purchasePrice(row);
+  }
+
+  @Override
+  void setPurchasePrice(double purchasePrice) {
+    throwsExceptionIfAmountIsNegative(purchasePrice);
+    store.setPurchasePrice(row, purchasePrice);
+  }
+
+  @Override
+  public long getPurchaseCents() {
+    return store.purchaseCents(row);
+  }
+
+  @Override
+  public double getSellingPrice() {
+    return store.sellingPrice(row);
+  }
+
+  @Override
+  public long getSellingCents() {
+    return store.sellingCents(row);
+  }
+
+  @Override
+  void setSellingPrice(double sellingPrice) {
+    throwsExceptionIfAmountIsNegative(sellingPrice);
+    store.setSellingPrice(row, sellingPrice);
+  }
+
+  @Override
+  public int getNumberUnits() {
+    return store.numberUnits(row);
+  }
+
+  @Override
+  void setNumberUnits(int numberUnits) {
+    throwsExceptionIfAmountIsNegative(numberUnits);
+    store.setNumberUnits(row, numberUnits);
+  }
+
+  @Override
+  public int getSafetyStock() {
+    return store.safetyStock(row);
+  }
+
+  @Override
+  void setSafetyStock(int safetyStock) {
+    throwsExceptionIfAmountIsNegative(safetyStock);
+    store.setSafetyStock(row, safetyStock);
+  }
+
+  @Override
+  public int getMaxStock() {
+    return store.maxStock(row);
+  }
+
+  @Override
+  void setMaxStock(int maxStock) {
+    throwsExceptionIfAmountIsNegative(maxStock);
+    if (maxStock < getSafetyStock()) {
+      throw new ArticleIllegalErrorArgumentException(
+          "El stock máximo no puede ser inferior al stock mínimo.");
+    }
+    store.setMaxStock(row, maxStock);
+  }
+}
@@ -0,0 +1,650 @@
+package gestisimal.business;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Almacenamiento de artículos en un fichero proyectado en memoria, organizado por columnas.
+ *
+ * El fichero de datos guarda una columna por cada campo numérico (código, unidades, precios,
+ * sus céntimos y stocks), las referencias al nombre y la marca, y las dos tablas hash de direccionamiento
+ * abierto que indexan por código y por nombre y marca. Los nombres y marcas se guardan en UTF-8
+ * en un segundo fichero que solo crece ({@code fichero.strings}). Al abrir el almacén no hay que
+ * leer nada: basta con proyectar los ficheros, y los cambios se escriben directamente en la
+ * proyección. Los artículos que se devuelven son vistas {@link MappedArticle} sobre una fila.
+ *
+ * Las cadenas no se borran ni se sobrescriben: un nombre que no cambia al modificar el artículo
+ * sigue apuntando a la misma cadena, y cada marca se escribe una sola vez por sesión y la
+ * comparten todas las filas que la usan, igual que el diccionario de marcas del almacén. Los
+ * nombres de los artículos borrados o renombrados siguen ocupando su sitio, así que un almacén
+ * con muchos renombrados crece hasta el límite de 2 GiB del fichero; para recuperar el sitio hay
+ * que guardar los artículos con {@link Warehouse#saveFile(String)} y cargarlos en un almacén
+ * proyectado nuevo.
+ *
+ * Las filas de los artículos borrados se quedan como huecos (código 0) y no se reutilizan, para
+ * que las vistas repartidas sigan siendo válidas. Cuando se llenan las filas se rehace el fichero
+ * con el doble de capacidad conservando el número de cada fila.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class MappedArticleStore implements ArticleStore {
+
+  /**
+   * Número mágico del formato ("GSMM")
+   */
+  private static final int MAGIC = 0x47534D4D;
+  /**
+   * Versión del formato
+   */
+  private static final int VERSION = 2;
+  /**
+   * Tamaño de la cabecera en bytes
+   */
+  private static final int HEADER_SIZE = 64;
+  /**
+   * Bytes por fila de capacidad: 6 columnas de 8 bytes, 5 de 4 bytes y 2 tablas hash de 2
+   * huecos de 4 bytes por fila
+   */
+  private static final int ROW_BYTES = 6 * 8 + 5 * 4 + 2 * 2 * 4;
+  /**
+   * Capacidad inicial en filas
+   */
+  private static final int INITIAL_CAPACITY = 1024;
+  /**
+   * Capacidad máxima en filas, para que el fichero de datos no pase de 2 GiB
+   */
+  private static final int MAX_CAPACITY = 1 << 24;
+
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int END_OFFSET = 12;
+  private static final int SIZE_OFFSET = 16;
+  private static final int MAX_CODE_OFFSET = 20;
+  private static final int STRINGS_END_OFFSET = 24;
+
+  /**
+   * Acceso atómico a enteros de la proyección
+   */
+  private static final VarHandle INT =
+      MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+  /**
+   * Fichero de datos
+   */
+  private final Path file;
+  /**
+   * Fichero de nombres y marcas
+   */
+  private final Path stringsFile;
+  /**
+   * Canal del fichero de nombres y marcas
+   */
+  private final FileChannel stringsChannel;
+  /**
+   * Proyección del fichero de datos
+   */
+  private MappedByteBuffer data;
+  /**
+   * Proyección del fichero de nombres y marcas
+   */
+  private MappedByteBuffer strings;
+  /**
+   * Capacidad en filas
+   */
+  private int capacity;
+
+  private int purchasePriceColumn;
+  private int sellingPriceColumn;
+  private int purchaseCentsColumn;
+  private int sellingCentsColumn;
+  private int nameColumn;
+  private int brandColumn;
+  private int codeColumn;
+  private int unitsColumn;
+  private int safetyStockColumn;
+  private int maxStockColumn;
+  private int hashColumn;
+  private int codeSlots;
+  private int nameSlots;
+  /**
+   * Posición de cada marca escrita o leída en esta sesión, y la marca de cada una de esas
+   * posiciones, para no escribir ni leer dos veces la misma marca
+   */
+  private final Map<String, Long> brandOffsets = new ConcurrentHashMap<>();
+  private final Map<Long, String> brandsByOffset = new ConcurrentHashMap<>();
+
+  /**
+   * Abre el almacenamiento de un fichero, creándolo vacío si no existe
+   *
+   * @param file Fichero de datos
+   * @throws IOException
+   */
+  MappedArticleStore(Path file) throws IOException {
+    this.file = file;
+    this.stringsFile = file.resolveSibling(file.getFileName() + ".strings");
+    this.stringsChannel = FileChannel.open(stringsFile, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    if (Files.exists(file) && Files.size(file) > 0) {
+      map(Files.size(file));
+      if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+        throw new IOException("El fichero no es un almacén proyectado en memoria.");
+      }
+    } else {
+      capacity = INITIAL_CAPACITY;
+      map(HEADER_SIZE + (long) ROW_BYTES * capacity);
+      data.putInt(0, MAGIC).putInt(4, VERSION).putInt(CAPACITY_OFFSET, capacity);
+    }
+    strings = stringsChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+        Math.max(stringsEnd(), 1 << 16));
+    Article.reserveCode(data.getInt(MAX_CODE_OFFSET));
+  }
+
+  /**
+   * Escribe en disco los cambios pendientes de las proyecciones
+   */
+  void force() {
+    data.force();
+    strings.force();
+  }
+
+  /**
+   * Escribe en disco los cambios pendientes y cierra el fichero de nombres y marcas. Las
+   * proyecciones se sueltan para que se liberen al recogerlas, ya que Java no permite
+   * deshacerlas a mano. Después el almacenamiento no se puede usar.
+   *
+   * @throws IOException
+   */
+  void close() throws IOException {
+    if (data == null) {
+      return;
+    }
+    try {
+      force();
+    } finally {
+      data = null;
+      strings = null;
+      stringsChannel.close();
+    }
+  }
+
+  @Override
+  public Article get(int code) {
+    int row = rowOf(code);
+    return row < 0 ? null : new MappedArticle(this, row);
+  }
+
+  @Override
+  public Article findByNameAndBrand(String name, String brand) {
+    int hash = nameAndBrandHash(name, brand);
+    int mask = 2 * capacity - 1;
+    for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+      int row = data.getInt(nameSlots + 4 * slot) - 1;
+      if (row < 0) {
+        return null;
+      }
+      if (data.getInt(hashColumn + 4 * row) == hash && name(row).equals(name)
+          && brand(row).equals(brand)) {
+        return new MappedArticle(this, row);
+      }
+    }
+  }
+
+  @Override
+  public Article add(Article article) {
+    int code = article.getCode();
+    if (rowOf(code) >= 0) {
+      return null;
+    }
+    int row = end();
+    if (row == capacity) {
+      grow();
+    }
+    data.putInt(codeColumn + 4 * row, code);
+    data.putInt(END_OFFSET, row + 1);
+    data.putInt(SIZE_OFFSET, size() + 1);
+    data.putInt(MAX_CODE_OFFSET, Math.max(data.getInt(MAX_CODE_OFFSET), code));
+    insertSlot(codeSlots, mix(code), row);
+
+    MappedArticle stored = new MappedArticle(this, row);
+    stored.set(article.getName(), article.getBrand(), article.getNumberUnits(),
+        article.getPurchasePrice(), article.getSellingPrice(), article.getSafetyStock(),
+        article.getMaxStock());
+    indexNameAndBrand(stored);
+    return stored;
+  }
+
+  @Override
+  public Article remove(int code) {
+    int row = rowOf(code);
+    if (row < 0) {
+      return null;
+    }
+    MappedArticle stored = new MappedArticle(this, row);
+    Article removed = ArticleStore.detach(stored);
+    unindexNameAndBrand(stored);
+    deleteSlot(codeSlots, slotOf(codeSlots, mix(code), row));
+    data.putInt(codeColumn + 4 * row, 0);
+    data.putInt(SIZE_OFFSET, size() - 1);
+    return removed;
+  }
+
+  @Override
+  public void unindexNameAndBrand(Article article) {
+    int row = ((MappedArticle) article).row();
+    int slot = slotOf(nameSlots, mix(data.getInt(hashColumn + 4 * row)), row);
+    if (slot >= 0) {
+      deleteSlot(nameSlots, slot);
+    }
+  }
+
+  @Override
+  public void indexNameAndBrand(Article article) {
+    int row = ((MappedArticle) article).row();
+    int hash = nameAndBrandHash(name(row), brand(row));
+    data.putInt(hashColumn + 4 * row, hash);
+    insertSlot(nameSlots, mix(hash), row);
+  }
+
+  @Override
+  public int size() {
+    return data.getInt(SIZE_OFFSET);
+  }
+
+  /**
+   * Recorre las filas por posición, que se parten en trozos iguales para los streams paralelos.
+   */
+  @Override
+  public Stream<Article> stream() {
+    return IntStream.range(0, end()).filter(row -> code(row) != 0)
+        .mapToObj(row -> new MappedArticle(this, row));
+  }
+
+  /**
+   * Recorre los artículos en orden de fila, que es el de inserción.
+   */
+  @Override
+  public Iterator<Article> iterator() {
+    return new Iterator<Article>() {
+      private int next = skipHoles(0);
+
+      @Override
+      public boolean hasNext() {
+        return next < end();
+      }
+
+      @Override
+      public Article next() {
+        if (next >= end()) {
+          throw new NoSuchElementException();
+        }
+        Article article = new MappedArticle(MappedArticleStore.this, next);
+        next = skipHoles(next + 1);
+        return article;
+      }
+    };
+  }
+
+  int code(int row) {
+    return data.getInt(codeColumn + 4 * row);
+  }
+
+  String name(int row) {
+    return readString(data.getLong(nameColumn + 8 * row));
+  }
+
+  void setName(int row, String name) {
+    int index = nameColumn + 8 * row;
+    data.putLong(index, writeString(data.getLong(index), name));
+  }
+
+  /**
+   * Devuelve la marca de una fila, la misma cadena para todas las filas que comparten posición
+   */
+  String brand(int row) {
+    long offset = data.getLong(brandColumn + 8 * row);
+    String brand = brandsByOffset.get(offset);
+    if (brand == null) {
+      brand = readString(offset);
+      if (brandOffsets.putIfAbsent(brand, offset) == null) {
+        brandsByOffset.put(offset, brand);
+      }
+    }
+    return brand;
+  }
+
+  void setBrand(int row, String brand) {
+    int index = brandColumn + 8 * row;
+    Long offset = brandOffsets.get(brand);
+    if (offset == null) {
+      offset = writeString(data.getLong(index), brand);
+      brandOffsets.put(brand, offset);
+      brandsByOffset.put(offset, brand);
+    }
+    data.putLong(index, offset);
+  }
+
+  int numberUnits(int row) {
+    return (int) INT.getVolatile(data, unitsColumn + 4 * row);
+  }
+
+  void setNumberUnits(int row, int numberUnits) {
+    INT.setVolatile(data, unitsColumn + 4 * row, numberUnits);
+  }
+
+  /**
+   * Añade unidades a una fila de forma atómica
+   *
+   * @return Unidades tras añadirlas
+   */
+  int addUnits(int row, int units) {
+    return (int) INT.getAndAdd(data, unitsColumn + 4 * row, units) + units;
+  }
+
+  /**
+   * Saca unidades de una fila con compare-and-set, o ninguna si no hay suficientes
+   *
+   * @return Unidades que quedan, o -1 si el stock es insuficiente
+   */
+  int tryDecrease(int row, int units) {
+    int index = unitsColumn + 4 * row;
+    while (true) {
+      int current = (int) INT.getVolatile(data, index);
+      if (current < units) {
+        return -1;
+      }
+      if (INT.compareAndSet(data, index, current, current - units)) {
+        return current - units;
+      }
+      Thread.onSpinWait();
+    }
+  }
+
+  double purchasePrice(int row) {
+    return data.getDouble(purchasePriceColumn + 8 * row);
+  }
+
+  void setPurchasePrice(int row, double purchasePrice) {
+    data.putDouble(purchasePriceColumn + 8 * row, purchasePrice);
+    data.putLong(purchaseCentsColumn + 8 * row, Cents.of(purchasePrice));
+  }
+
+  long purchaseCents(int row) {
+    return data.getLong(purchaseCentsColumn + 8 * row);
+  }
+
+  double sellingPrice(int row) {
+    return data.getDouble(sellingPriceColumn + 8 * row);
+  }
+
+  void setSellingPrice(int row, double sellingPrice) {
+    data.putDouble(sellingPriceColumn + 8 * row, sellingPrice);
+    data.putLong(sellingCentsColumn + 8 * row, Cents.of(sellingPrice));
+  }
+
+  long sellingCents(int row) {
+    return data.getLong(sellingCentsColumn + 8 * row);
+  }
+
+  int safetyStock(int row) {
+    return data.getInt(safetyStockColumn + 4 * row);
+  }
+
+  void setSafetyStock(int row, int safetyStock) {
+    data.putInt(safetyStockColumn + 4 * row, safetyStock);
+  }
+
+  int maxStock(int row) {
+    return data.getInt(maxStockColumn + 4 * row);
+  }
+
+  void setMaxStock(int row, int maxStock) {
+    data.putInt(maxStockColumn + 4 * row, maxStock);
+  }
+
+  private int end() {
+    return data.getInt(END_OFFSET);
+  }
+
+  private long stringsEnd() {
+    return data.getLong(STRINGS_END_OFFSET);
+  }
+
+  private int skipHoles(int row) {
+    int end = end();
+    while (row < end && code(row) == 0) {
+      row++;
+    }
+    return row;
+  }
+
+  /**
+   * Proyecta el fichero de datos y calcula dónde empieza cada columna
+   *
+   * @param length Longitud del fichero
+   */
+  private void map(long length) throws IOException {
+    layout(map(file, length, StandardOpenOption.CREATE));
+  }
+
+  private static MappedByteBuffer map(Path path, long length, StandardOpenOption create)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(path, create, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+      mapped.order(ByteOrder.LITTLE_ENDIAN);
+      return mapped;
+    }
+  }
+
+  /**
+   * Pasa a usar una proyección y calcula dónde empieza cada columna según su tamaño
+   */
+  private void layout(MappedByteBuffer mapped) {
+    data = mapped;
+    capacity = (mapped.capacity() - HEADER_SIZE) / ROW_BYTES;
+    purchasePriceColumn = HEADER_SIZE;
+    sellingPriceColumn = purchasePriceColumn + 8 * capacity;
+    purchaseCentsColumn = sellingPriceColumn + 8 * capacity;
+    sellingCentsColumn = purchaseCentsColumn + 8 * capacity;
+    nameColumn = sellingCentsColumn + 8 * capacity;
+    brandColumn = nameColumn + 8 * capacity;
+    codeColumn = brandColumn + 8 * capacity;
+    unitsColumn = codeColumn + 4 * capacity;
+    safetyStockColumn = unitsColumn + 4 * capacity;
+    maxStockColumn = safetyStockColumn + 4 * capacity;
+    hashColumn = maxStockColumn + 4 * capacity;
+    codeSlots = hashColumn + 4 * capacity;
+    nameSlots = codeSlots + 8 * capacity;
+  }
+
+  /**
+   * Rehace el fichero de datos con el doble de capacidad. Se llena entero un fichero temporal
+   * (cabecera, columnas y tablas hash) y se escribe en disco antes de que sustituya al original
+   * con un movimiento atómico, de modo que si el proceso se corta en cualquier momento queda el
+   * fichero antiguo o el nuevo completo, nunca uno a medias.
+   */
+  private void grow() {
+    if (capacity >= MAX_CAPACITY) {
+      throw new IllegalStateException("El almacén proyectado en memoria está lleno.");
+    }
+    MappedByteBuffer old = data;
+    int oldCapacity = capacity;
+    int[] oldColumns = {purchasePriceColumn, sellingPriceColumn, purchaseCentsColumn,
+        sellingCentsColumn, nameColumn, brandColumn, codeColumn, unitsColumn, safetyStockColumn,
+        maxStockColumn, hashColumn};
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try {
+      Files.deleteIfExists(temp);
+      strings.force();
+      layout(map(temp, HEADER_SIZE + (long) ROW_BYTES * oldCapacity * 2,
+          StandardOpenOption.CREATE_NEW));
+      data.put(0, old, 0, HEADER_SIZE);
+      data.putInt(CAPACITY_OFFSET, capacity);
+      int[] newColumns = {purchasePriceColumn, sellingPriceColumn, purchaseCentsColumn,
+          sellingCentsColumn, nameColumn, brandColumn, codeColumn, unitsColumn,
+          safetyStockColumn, maxStockColumn, hashColumn};
+      int[] widths = {8, 8, 8, 8, 8, 8, 4, 4, 4, 4, 4};
+      for (int i = 0; i < widths.length; i++) {
+        data.put(newColumns[i], old, oldColumns[i], widths[i] * oldCapacity);
+      }
+      int end = end();
+      for (int row = 0; row < end; row++) {
+        int code = code(row);
+        if (code != 0) {
+          insertSlot(codeSlots, mix(code), row);
+          insertSlot(nameSlots, mix(data.getInt(hashColumn + 4 * row)), row);
+        }
+      }
+      data.force();
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      map(data.capacity());
+    } catch (IOException e) {
+      layout(old);
+      try {
+        Files.deleteIfExists(temp);
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw new IllegalStateException("No se puede ampliar el almacén proyectado en memoria.", e);
+    }
+  }
+
+  /**
+   * Devuelve la fila del artículo con el código indicado, o -1 si no existe
+   */
+  private int rowOf(int code) {
+    int mask = 2 * capacity - 1;
+    for (int slot = mix(code) & mask;; slot = (slot + 1) & mask) {
+      int row = data.getInt(codeSlots + 4 * slot) - 1;
+      if (row < 0 || code(row) == code) {
+        return row;
+      }
+    }
+  }
+
+  /**
+   * Devuelve el hueco de una tabla hash que apunta a la fila indicada, o -1 si no hay ninguno
+   */
+  private int slotOf(int table, int hash, int row) {
+    int mask = 2 * capacity - 1;
+    for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+      int value = data.getInt(table + 4 * slot);
+      if (value == 0) {
+        return -1;
+      }
+      if (value == row + 1) {
+        return slot;
+      }
+    }
+  }
+
+  /**
+   * Apunta a una fila desde el primer hueco libre de una tabla hash. Los huecos guardan la fila
+   * más uno, de modo que un fichero recién creado, lleno de ceros, tiene las tablas vacías.
+   */
+  private void insertSlot(int table, int hash, int row) {
+    int mask = 2 * capacity - 1;
+    int slot = hash & mask;
+    while (data.getInt(table + 4 * slot) != 0) {
+      slot = (slot + 1) & mask;
+    }
+    data.putInt(table + 4 * slot, row + 1);
+  }
+
+  /**
+   * Libera un hueco de una tabla hash desplazando hacia atrás las filas que colisionaban con él
+   */
+  private void deleteSlot(int table, int slot) {
+    int mask = 2 * capacity - 1;
+    int hole = slot;
+    for (int next = (hole + 1) & mask;; next = (next + 1) & mask) {
+      int value = data.getInt(table + 4 * next);
+      if (value == 0) {
+        break;
+      }
+      int row = value - 1;
+      int hash = table == codeSlots ? mix(code(row)) : mix(data.getInt(hashColumn + 4 * row));
+      int home = hash & mask;
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        data.putInt(table + 4 * hole, value);
+        hole = next;
+      }
+    }
+    data.putInt(table + 4 * hole, 0);
+  }
+
+  /**
+   * Añade una cadena al final del fichero de nombres y marcas, salvo que sea la misma que ya
+   * tenía el campo
+   *
+   * @param current Posición de la cadena que tenía el campo
+   * @param text Cadena
+   * @return Posición de la cadena en el fichero
+   */
+  private long writeString(long current, String text) {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    long offset = stringsEnd();
+    if (current >= 0 && current < offset && sameString(current, bytes)) {
+      return current;
+    }
+    long needed = offset + 4 + bytes.length;
+    if (needed > strings.capacity()) {
+      if (needed > Integer.MAX_VALUE) {
+        throw new IllegalStateException("El fichero de nombres y marcas está lleno.");
+      }
+      try {
+        strings = stringsChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+            Math.min(Integer.MAX_VALUE, Math.max(needed, 2L * strings.capacity())));
+      } catch (IOException e) {
+        throw new IllegalStateException("No se puede ampliar el fichero de nombres y marcas.", e);
+      }
+    }
+    strings.putInt((int) offset, bytes.length);
+    strings.put((int) offset + 4, bytes);
+    data.putLong(STRINGS_END_OFFSET, needed);
+    return offset;
+  }
+
+  private boolean sameString(long offset, byte[] bytes) {
+    if (strings.getInt((int) offset) != bytes.length) {
+      return false;
+    }
+    for (int i = 0; i < bytes.length; i++) {
+      if (strings.get((int) offset + 4 + i) != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String readString(long offset) {
+    byte[] bytes = new byte[strings.getInt((int) offset)];
+    strings.get((int) offset + 4, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int nameAndBrandHash(String name, String brand) {
+    return 31 * name.hashCode() + brand.hashCode();
+  }
+
+  private static int mix(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,58 @@
+package gestisimal.business;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Almacén guardado en un fichero proyectado en memoria.
+ *
+ * Los campos numéricos de los artículos se guardan por columnas en el fichero y los nombres y
+ * marcas en un fichero aparte, de modo que abrir el almacén no necesita leer ni interpretar nada
+ * y la memoria ocupada no depende del número de artículos. Los movimientos de stock se escriben
+ * directamente en el fichero. {@link #get(int)} devuelve vistas de los artículos guardados.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+public class MappedWarehouse extends Warehouse {
+
+  /**
+   * Almacenamiento proyectado en memoria
+   */
+  private final MappedArticleStore store;
+
+  /**
+   * Abre el almacén proyectado en un fichero, creándolo vacío si no existe
+   *
+   * @param file Fichero de datos del almacén
+   * @throws IOException
+   */
+  public MappedWarehouse(String file) throws IOException {
+    this(new MappedArticleStore(Paths.get(file)));
+  }
+
+  private MappedWarehouse(MappedArticleStore store) {
+    super(store);
+    this.store = store;
+  }
+
+  /**
+   * Escribe en disco los cambios del almacén que aún estén solo en memoria
+   */
+  public void flush() {
+    store.force();
+  }
+
+  /**
+   * Escribe en disco los cambios del almacén, cierra sus ficheros y su diario, si lo tiene. El
+   * almacén no se puede usar después.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      store.close();
+    }
+  }
+}
@@ -0,0 +1,488 @@
+package gestisimal.business;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import org.xml.sax.SAXException;
+
+/**
+ * Carga en paralelo de ficheros XML y JSON grandes.
+ *
+ * Una primera pasada recorre los bytes del fichero proyectado en memoria, sin interpretarlos,
+ * para partirlo en trozos que empiezan y terminan en un artículo. Los trozos se interpretan a la
+ * vez en el pool fork-join común directamente sobre la proyección, cada uno envuelto en un
+ * documento propio (en XML, con la etiqueta raíz del fichero y sus espacios de nombres), y los
+ * artículos se entregan en el orden del fichero, de modo que los códigos repetidos entre trozos
+ * se detectan igual que en la carga secuencial. Solo se interpretan a la vez unos pocos trozos
+ * por hilo del pool, así que la memoria ocupada no depende del tamaño del fichero.
+ *
+ * La carga en paralelo se puede desactivar con la propiedad del sistema
+ * {@code gestisimal.parallelLoad=false}, para comparar con la carga secuencial o si el pool común
+ * está ocupado con otras tareas.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class ParallelLoader {
+
+  /**
+   * Tamaño mínimo del fichero para cargarlo en paralelo
+   */
+  static final long THRESHOLD = 8 << 20;
+  /**
+   * Propiedad del sistema que activa o desactiva la carga en paralelo
+   */
+  static final String PARALLEL_PROPERTY = "gestisimal.parallelLoad";
+  /**
+   * Tamaño aproximado de un trozo
+   */
+  private static final int CHUNK_SIZE = 1 << 20;
+  /**
+   * Trozos que se interpretan o esperan a entregarse a la vez por cada hilo del pool
+   */
+  private static final int CHUNKS_PER_THREAD = 2;
+
+  private static final byte[] JSON_OPEN = {'['};
+  private static final byte[] JSON_CLOSE = {']'};
+  private static final byte[] ARTICLE = "article".getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * Intérprete de un trozo envuelto en un documento propio
+   */
+  private interface ChunkReader {
+    void read(InputStream in, Consumer<Article> sink) throws IOException, SAXException;
+  }
+
+  /**
+   * Parte un fichero en trozos que empiezan y terminan en un artículo
+   */
+  private interface Splitter {
+    /**
+     * @return Trozos del fichero, o null si el fichero no se puede partir
+     */
+    Chunks split(ByteBuffer bytes, int chunkSize);
+  }
+
+  /**
+   * Trozos de un fichero y el principio y el final del documento que envuelve a cada uno
+   */
+  private static class Chunks {
+    /**
+     * Posición donde empieza y posición donde termina cada trozo
+     */
+    final int[] bounds;
+    final byte[] open;
+    final byte[] close;
+
+    Chunks(int[] bounds, byte[] open, byte[] close) {
+      this.bounds = bounds;
+      this.open = open;
+      this.close = close;
+    }
+  }
+
+  private ParallelLoader() {}
+
+  /**
+   * Carga en paralelo los artículos de un fichero XML, si es lo bastante grande y se puede partir
+   *
+   * @param file Fichero
+   * @param brands Marca guardada para cada marca leída, que se llama desde varios hilos
+   * @param sink Destino de cada artículo leído, en el orden del fichero
+   * @return false si el fichero se tiene que cargar de forma secuencial
+   * @throws IOException
+   * @throws SAXException Si el XML está mal formado
+   */
+  static boolean readXml(Path file, UnaryOperator<String> brands, Consumer<Article> sink)
+      throws IOException, SAXException {
+    return read(file, ParallelLoader::splitXml,
+        (in, chunkSink) -> WireHousePersistence.readXml(in, brands, chunkSink), sink);
+  }
+
+  /**
+   * Carga en paralelo los artículos de un fichero JSON, si es lo bastante grande y se puede
+   * partir
+   *
+   * @param file Fichero
+   * @param brands Marca guardada para cada marca leída, que se llama desde varios hilos
+   * @param sink Destino de cada artículo leído, en el orden del fichero
+   * @return false si el fichero se tiene que cargar de forma secuencial
+   * @throws IOException
+   */
+  static boolean readJson(Path file, UnaryOperator<String> brands, Consumer<Article> sink)
+      throws IOException {
+    try {
+      return read(file, ParallelLoader::splitJson,
+          (in, chunkSink) -> WireHousePersistence
+              .readJson(new InputStreamReader(in, StandardCharsets.UTF_8), brands, chunkSink),
+          sink);
+    } catch (SAXException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static boolean read(Path file, Splitter splitter, ChunkReader reader,
+      Consumer<Article> sink) throws IOException, SAXException {
+    long size = Files.size(file);
+    if (!enabled() || size < THRESHOLD || size > Integer.MAX_VALUE) {
+      return false;
+    }
+    ByteBuffer bytes;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    Chunks chunks = splitter.split(bytes, CHUNK_SIZE);
+    if (chunks == null || chunks.bounds.length < 4) {
+      return false;
+    }
+
+    ChunkTask[] tasks = new ChunkTask[chunks.bounds.length / 2];
+    int window = CHUNKS_PER_THREAD * Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+    int started = 0;
+    try {
+      for (int i = 0; i < tasks.length; i++) {
+        for (; started < tasks.length && started < i + window; started++) {
+          ByteBuffer chunk = bytes.asReadOnlyBuffer().limit(chunks.bounds[2 * started + 1])
+              .position(chunks.bounds[2 * started]);
+          tasks[started] = new ChunkTask(chunk, chunks.open, chunks.close, reader);
+          ForkJoinPool.commonPool().execute(tasks[started]);
+        }
+        ChunkTask task = tasks[i];
+        task.join();
+        tasks[i] = null;
+        if (task.failure instanceof IOException) {
+          throw (IOException) task.failure;
+        } else if (task.failure instanceof SAXException) {
+          throw (SAXException) task.failure;
+        } else if (task.failure != null) {
+          throw (RuntimeException) task.failure;
+        }
+        task.articles.forEach(sink);
+      }
+    } finally {
+      for (ChunkTask task : tasks) {
+        if (task != null) {
+          task.cancel(false);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Comprueba si la carga en paralelo está activada, que lo está salvo que la propiedad
+   * {@link #PARALLEL_PROPERTY} valga {@code false}
+   */
+  private static boolean enabled() {
+    return !"false".equalsIgnoreCase(System.getProperty(PARALLEL_PROPERTY));
+  }
+
+  /**
+   * Interpretación de un trozo del fichero
+   */
+  private static class ChunkTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final ByteBuffer chunk;
+    private final byte[] open;
+    private final byte[] close;
+    private final ChunkReader reader;
+    /**
+     * Artículos del trozo, en orden
+     */
+    final List<Article> articles = new ArrayList<>();
+    /**
+     * Error al interpretar el trozo, o null
+     */
+    Exception failure;
+
+    ChunkTask(ByteBuffer chunk, byte[] open, byte[] close, ChunkReader reader) {
+      this.chunk = chunk;
+      this.open = open;
+      this.close = close;
+      this.reader = reader;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        reader.read(new SequenceInputStream(new ByteArrayInputStream(open),
+            new SequenceInputStream(new ByteBufferInputStream(chunk),
+                new ByteArrayInputStream(close))),
+            articles::add);
+      } catch (IOException | SAXException | RuntimeException e) {
+        failure = e;
+      }
+    }
+  }
+
+  /**
+   * Lectura de un trozo de la proyección del fichero sin copiarlo
+   */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(len, buffer.remaining());
+      buffer.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+
+  /**
+   * Parte un array JSON en trozos de objetos completos, sin la coma que los separa del siguiente
+   */
+  private static Chunks splitJson(ByteBuffer bytes, int chunkSize) {
+    List<Integer> bounds = new ArrayList<>();
+    int limit = bytes.limit();
+    int depth = 0;
+    int next = 0;
+    int lastEnd = -1;
+    for (int i = 0; i < limit; i++) {
+      byte c = bytes.get(i);
+      switch (c) {
+        case '"':
+          for (i++; i < limit && bytes.get(i) != '"'; i++) {
+            if (bytes.get(i) == '\\') {
+              i++;
+            }
+          }
+          break;
+        case '[':
+        case '{':
+          if (depth == 0 && c != '[') {
+            return null;
+          }
+          if (depth == 1 && i >= next) {
+            if (lastEnd >= 0) {
+              bounds.add(lastEnd);
+            }
+            bounds.add(i);
+            next = i + chunkSize;
+          }
+          depth++;
+          break;
+        case ']':
+        case '}':
+          depth--;
+          if (depth == 1) {
+            lastEnd = i + 1;
+          } else if (depth == 0) {
+            if (lastEnd >= 0) {
+              bounds.add(lastEnd);
+            }
+            return toChunks(bounds, JSON_OPEN, JSON_CLOSE);
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Parte el elemento raíz de un XML en trozos de elementos {@code article} completos, que se
+   * envuelven en una copia de la etiqueta raíz para conservar sus espacios de nombres
+   */
+  private static Chunks splitXml(ByteBuffer bytes, int chunkSize) {
+    List<Integer> bounds = new ArrayList<>();
+    int limit = bytes.limit();
+    int depth = 0;
+    int next = 0;
+    byte[] root = null;
+    for (int i = 0; i < limit; i++) {
+      if (bytes.get(i) != '<' || i + 1 >= limit) {
+        continue;
+      }
+      byte c = bytes.get(i + 1);
+      if (c == '?') {
+        int end = indexOf(bytes, "?>", i);
+        if (depth == 0 && !utf8Declaration(bytes, i, end)) {
+          return null;
+        }
+        i = end;
+      } else if (startsWith(bytes, i, "<!--")) {
+        i = indexOf(bytes, "-->", i);
+      } else if (startsWith(bytes, i, "<![CDATA[")) {
+        i = indexOf(bytes, "]]>", i);
+      } else if (c == '!') {
+        int end = indexOf(bytes, ">", i);
+        int subset = indexOf(bytes, "[", i);
+        if (end < 0 || subset >= 0 && subset < end) {
+          return null;
+        }
+        i = end;
+      } else if (c == '/') {
+        depth--;
+        if (depth == 0) {
+          if (!bounds.isEmpty()) {
+            bounds.add(i);
+          }
+          return root == null ? null : toChunks(bounds, root, closeTag(root));
+        }
+        i = indexOf(bytes, ">", i);
+      } else {
+        if (depth == 1 && i >= next && isArticle(bytes, i + 1)) {
+          if (!bounds.isEmpty()) {
+            bounds.add(i);
+          }
+          bounds.add(i);
+          next = i + chunkSize;
+        }
+        int end = endOfTag(bytes, i);
+        if (end < 0) {
+          return null;
+        }
+        if (depth == 0) {
+          root = new byte[end + 1 - i];
+          bytes.duplicate().position(i).get(root);
+        }
+        if (bytes.get(end - 1) != '/') {
+          depth++;
+        }
+        i = end;
+      }
+      if (i < 0) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Junta las posiciones de los trozos con el documento que los envuelve, o null si no hay
+   * ningún trozo
+   */
+  private static Chunks toChunks(List<Integer> bounds, byte[] open, byte[] close) {
+    if (bounds.isEmpty()) {
+      return null;
+    }
+    return new Chunks(bounds.stream().mapToInt(Integer::intValue).toArray(), open, close);
+  }
+
+  /**
+   * Etiqueta de cierre de una etiqueta de apertura, con el mismo nombre
+   */
+  private static byte[] closeTag(byte[] open) {
+    int end = 1;
+    while (end < open.length && open[end] != '>' && open[end] != '/'
+        && open[end] != ' ' && open[end] != '\t' && open[end] != '\n' && open[end] != '\r') {
+      end++;
+    }
+    byte[] close = new byte[end + 2];
+    close[0] = '<';
+    close[1] = '/';
+    System.arraycopy(open, 1, close, 2, end - 1);
+    close[end + 1] = '>';
+    return close;
+  }
+
+  private static boolean isArticle(ByteBuffer bytes, int from) {
+    for (int i = 0; i < ARTICLE.length; i++) {
+      if (from + i >= bytes.limit() || bytes.get(from + i) != ARTICLE[i]) {
+        return false;
+      }
+    }
+    int after = from + ARTICLE.length;
+    if (after >= bytes.limit()) {
+      return false;
+    }
+    byte c = bytes.get(after);
+    return c == '>' || c == '/' || c == ' ' || c == '\t' || c == '\n' || c == '\r';
+  }
+
+  /**
+   * Comprueba que la declaración XML no pida una codificación distinta de UTF-8
+   */
+  private static boolean utf8Declaration(ByteBuffer bytes, int from, int to) {
+    if (to < 0) {
+      return false;
+    }
+    byte[] text = new byte[to - from];
+    bytes.duplicate().position(from).get(text);
+    String declaration = new String(text, StandardCharsets.US_ASCII).toLowerCase(Locale.ROOT);
+    int encoding = declaration.indexOf("encoding");
+    return encoding < 0 || declaration.indexOf("utf-8", encoding) >= 0;
+  }
+
+  /**
+   * Devuelve la posición del '>' que cierra la etiqueta, saltando los valores de los atributos
+   */
+  private static int endOfTag(ByteBuffer bytes, int from) {
+    byte quote = 0;
+    for (int i = from; i < bytes.limit(); i++) {
+      byte c = bytes.get(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (c == '>') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean startsWith(ByteBuffer bytes, int from, String text) {
+    if (from + text.length() > bytes.limit()) {
+      return false;
+    }
+    for (int i = 0; i < text.length(); i++) {
+      if (bytes.get(from + i) != text.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Devuelve la posición del último byte del texto buscado, o -1 si no está
+   */
+  private static int indexOf(ByteBuffer bytes, String text, int from) {
+    for (int i = from; i + text.length() <= bytes.limit(); i++) {
+      if (startsWith(bytes, i, text)) {
+        return i + text.length() - 1;
+      }
+    }
+    return -1;
+  }
+}
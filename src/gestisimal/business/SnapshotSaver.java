@@ -0,0 +1,189 @@
+package gestisimal.business;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import static gestisimal.business.WireHousePersistence.*;
+
+/**
+ * Guardados de un almacén en fichero, tanto los que hace quien llama como los que se hacen en
+ * segundo plano.
+ *
+ * Cada guardado recibe un número al tomar la copia de los artículos, y un fichero solo se
+ * sustituye por una copia más nueva que la que ya tiene, así que un guardado en segundo plano
+ * que termina tarde no pisa a otro posterior. Mientras un guardado en segundo plano espera su
+ * turno, las peticiones nuevas para el mismo fichero se juntan con él: se queda con la copia más
+ * reciente y todas comparten el mismo resultado.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class SnapshotSaver {
+
+  /**
+   * Hilos donde se escriben los guardados en segundo plano
+   */
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(task -> {
+    Thread thread = new Thread(task, "warehouse-save");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * Estado de los guardados de cada fichero
+   */
+  private final Map<Path, Target> targets = new HashMap<>();
+
+  /**
+   * Guardados de un fichero
+   */
+  private static class Target {
+    /**
+     * Número del último guardado pedido
+     */
+    long issued;
+    /**
+     * Número de la copia que hay ahora en el fichero
+     */
+    long committed;
+    /**
+     * Si se está escribiendo un guardado en segundo plano
+     */
+    boolean running;
+    /**
+     * Guardado en segundo plano que espera su turno, o null
+     */
+    Pending queued;
+  }
+
+  /**
+   * Guardado en segundo plano pendiente
+   */
+  private static class Pending {
+    final String file;
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+    List<Article> snapshot;
+    long ticket;
+    Journal journal;
+    long mark;
+
+    Pending(String file) {
+      this.file = file;
+    }
+  }
+
+  /**
+   * Guarda los artículos en un fichero antes de volver
+   *
+   * @param articles Artículos, que no pueden cambiar mientras se guardan
+   * @param file Fichero
+   * @param journal Diario del fichero, o null si no tiene
+   * @throws IOException
+   */
+  void save(Iterable<Article> articles, String file, Journal journal) throws IOException {
+    Target target;
+    long ticket;
+    synchronized (this) {
+      target = target(file);
+      ticket = ++target.issued;
+    }
+    long mark = journal != null ? journal.mark() : 0;
+    write(target, articles, file, ticket, journal, mark);
+  }
+
+  /**
+   * Guarda una copia de los artículos en un fichero en segundo plano
+   *
+   * @param snapshot Copia de los artículos
+   * @param file Fichero
+   * @param journal Diario del fichero, o null si no tiene
+   * @return Resultado del guardado
+   */
+  CompletableFuture<Void> saveAsync(List<Article> snapshot, String file, Journal journal) {
+    long mark;
+    try {
+      mark = journal != null ? journal.mark() : 0;
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    synchronized (this) {
+      Target target = target(file);
+      Pending pending = target.queued;
+      if (pending == null) {
+        pending = target.queued = new Pending(file);
+      }
+      pending.snapshot = snapshot;
+      pending.ticket = ++target.issued;
+      pending.journal = journal;
+      pending.mark = mark;
+      if (!target.running) {
+        start(target);
+      }
+      return pending.future;
+    }
+  }
+
+  /**
+   * Pone a escribir el guardado que espera su turno
+   */
+  private void start(Target target) {
+    Pending pending = target.queued;
+    target.queued = null;
+    target.running = true;
+    EXECUTOR.execute(() -> {
+      try {
+        write(target, pending.snapshot, pending.file, pending.ticket, pending.journal,
+            pending.mark);
+        pending.future.complete(null);
+      } catch (IOException | RuntimeException e) {
+        pending.future.completeExceptionally(e);
+      } finally {
+        synchronized (this) {
+          target.running = false;
+          if (target.queued != null) {
+            start(target);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Escribe una copia en un fichero temporal y sustituye el fichero por ella si no hay ya una
+   * copia más nueva. El diario se prepara antes de sustituir el fichero y se recorta después; si
+   * el almacén se ha cerrado entretanto, el fichero no se toca, porque su diario ya no podría
+   * anotar la copia nueva y al abrirlo se descartarían las operaciones posteriores a ella.
+   */
+  private static void write(Target target, Iterable<Article> articles, String file, long ticket,
+      Journal journal, long mark) throws IOException {
+    Path temp = saveTemporary(articles, file);
+    synchronized (target) {
+      if (ticket < target.committed) {
+        Files.delete(temp);
+        return;
+      }
+      if (journal != null && !journal.prepareCheckpoint(temp, mark)) {
+        Files.delete(temp);
+        throw new IOException("El almacén se cerró antes de terminar de guardarse.");
+      }
+      replace(temp, file);
+      DeltaFile.delete(file);
+      target.committed = ticket;
+      if (journal != null) {
+        journal.checkpoint(mark);
+      }
+    }
+  }
+
+  private Target target(String file) {
+    return targets.computeIfAbsent(Paths.get(file).toAbsolutePath().normalize(),
+        path -> new Target());
+  }
+}
@@ -0,0 +1,20 @@
+package gestisimal.business;
+
+/**
+ * Avisos de stock de un artículo
+ * 
+ * @author Maria Cervilla Alcalde
+ *
+ */
+public enum StockAlert {
+
+  /**
+   * Hay menos unidades que el stock de seguridad
+   */
+  BELOW_SAFETY_STOCK,
+
+  /**
+   * Hay más unidades que el stock máximo
+   */
+  ABOVE_MAX_STOCK
+}
@@ -0,0 +1,31 @@
+package gestisimal.business;
+
+/**
+ * Recibe los avisos de stock de un almacén cuando un artículo cruza su stock de seguridad o su
+ * stock máximo.
+ * 
+ * Los avisos se entregan en el hilo que ha cambiado el artículo y mientras se cambia, así que el
+ * receptor no debe tardar ni cambiar el almacén.
+ * 
+ * @author Maria Cervilla Alcalde
+ *
+ */
+public interface StockAlertListener {
+
+  /**
+   * Se llama cuando un artículo entra en un aviso
+   * 
+   * @param article Artículo
+   * @param alert Aviso
+   */
+  void alertRaised(Article article, StockAlert alert);
+
+  /**
+   * Se llama cuando un artículo sale de un aviso porque sus unidades o sus límites han cambiado.
+   * No se llama cuando se borra el artículo.
+   * 
+   * @param article Artículo
+   * @param alert Aviso
+   */
+  default void alertCleared(Article article, StockAlert alert) {}
+}
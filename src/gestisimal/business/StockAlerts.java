@@ -0,0 +1,165 @@
+package gestisimal.business;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Códigos de los artículos por debajo de su stock de seguridad y por encima de su stock máximo,
+ * actualizados con cada cambio de un artículo. Un stock máximo de 0 significa que no hay máximo.
+ *
+ * Los cambios de un mismo artículo pueden llegar desde varios hilos a la vez (los movimientos
+ * de stock de {@link ConcurrentWarehouse}), así que cada artículo se revisa bajo uno de varios
+ * cerrojos repartidos por código y siempre con sus unidades del momento.
+ *
+ * Los avisos no se calculan hasta la primera vez que se consultan o se añade un receptor, como
+ * los índices de {@link ArticleIndexes}, así que abrir un almacén grande no recorre sus
+ * artículos. Los avisos que ya había al calcularlos no se notifican a los receptores.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class StockAlerts {
+
+  /**
+   * Número de cerrojos, potencia de dos
+   */
+  private static final int STRIPES = 64;
+
+  private final Set<Integer> below = ConcurrentHashMap.newKeySet();
+  private final Set<Integer> above = ConcurrentHashMap.newKeySet();
+  private final Object[] stripes = new Object[STRIPES];
+  private final List<StockAlertListener> listeners = new CopyOnWriteArrayList<>();
+  /**
+   * Artículos del almacén, para calcular los avisos
+   */
+  private final Iterable<Article> articles;
+  /**
+   * Si los cambios de los artículos se llevan ya a los avisos
+   */
+  private volatile boolean active;
+  /**
+   * Si los avisos están completos y se pueden consultar
+   */
+  private volatile boolean ready;
+
+  /**
+   * Crea los avisos, sin calcular hasta la primera consulta
+   *
+   * @param articles Artículos del almacén
+   */
+  StockAlerts(Iterable<Article> articles) {
+    this.articles = articles;
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Object();
+    }
+  }
+
+  /**
+   * Revisa los avisos de un artículo después de cambiarlo
+   *
+   * @param article Artículo guardado
+   */
+  void update(Article article) {
+    if (!active) {
+      return;
+    }
+    int code = article.getCode();
+    synchronized (stripes[code & (STRIPES - 1)]) {
+      int units = article.getNumberUnits();
+      int maxStock = article.getMaxStock();
+      set(below, article, units < article.getSafetyStock(), StockAlert.BELOW_SAFETY_STOCK);
+      set(above, article, maxStock > 0 && units > maxStock, StockAlert.ABOVE_MAX_STOCK);
+    }
+  }
+
+  /**
+   * Quita los avisos de un artículo borrado
+   *
+   * @param code Código del artículo
+   */
+  void remove(int code) {
+    synchronized (stripes[code & (STRIPES - 1)]) {
+      below.remove(code);
+      above.remove(code);
+    }
+  }
+
+  /**
+   * Devuelve los códigos de los artículos por debajo de su stock de seguridad
+   *
+   * @return Códigos, que siguen cambiando con el almacén
+   */
+  Set<Integer> below() {
+    build();
+    return below;
+  }
+
+  /**
+   * Devuelve los códigos de los artículos por encima de su stock máximo
+   *
+   * @return Códigos, que siguen cambiando con el almacén
+   */
+  Set<Integer> above() {
+    build();
+    return above;
+  }
+
+  void addListener(StockAlertListener listener) {
+    build();
+    listeners.add(listener);
+  }
+
+  void removeListener(StockAlertListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Calcula los avisos la primera vez que se necesitan. Se empiezan a seguir los movimientos de
+   * stock antes de recorrer los artículos, y cada artículo se revisa bajo su cerrojo con sus
+   * unidades del momento, igual que en {@link #update(Article)} pero sin avisar a los receptores.
+   */
+  private void build() {
+    if (ready) {
+      return;
+    }
+    synchronized (this) {
+      if (!ready) {
+        active = true;
+        for (Article article : articles) {
+          int code = article.getCode();
+          synchronized (stripes[code & (STRIPES - 1)]) {
+            int units = article.getNumberUnits();
+            int maxStock = article.getMaxStock();
+            if (units < article.getSafetyStock()) {
+              below.add(code);
+            }
+            if (maxStock > 0 && units > maxStock) {
+              above.add(code);
+            }
+          }
+        }
+        ready = true;
+      }
+    }
+  }
+
+  private void set(Set<Integer> alerts, Article article, boolean raised, StockAlert alert) {
+    int code = article.getCode();
+    if (alerts.contains(code) == raised) {
+      return;
+    }
+    if (raised) {
+      if (alerts.add(code)) {
+        for (StockAlertListener listener : listeners) {
+          listener.alertRaised(article, alert);
+        }
+      }
+    } else if (alerts.remove(code)) {
+      for (StockAlertListener listener : listeners) {
+        listener.alertCleared(article, alert);
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package gestisimal.business;
+
+/**
+ * Cambio de un artículo del almacén que se publica a los suscriptores de
+ * {@link Warehouse#stockEvents()}.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+public class StockEvent {
+
+  /**
+   * Tipo de cambio
+   */
+  public enum Type {
+    /**
+     * Artículo añadido
+     */
+    ADDED,
+    /**
+     * Artículo modificado
+     */
+    MODIFIED,
+    /**
+     * Artículo borrado
+     */
+    REMOVED,
+    /**
+     * Entrada o salida de unidades
+     */
+    STOCK
+  }
+
+  private final Type type;
+  private final int code;
+  /**
+   * Unidades que entran (positivas) o salen (negativas)
+   */
+  private final int units;
+  /**
+   * Unidades del artículo justo después del cambio
+   */
+  private final int numberUnits;
+
+  /**
+   * Crea un evento de stock.
+   *
+   * @param type Tipo de cambio
+   * @param code Código del artículo
+   * @param units Unidades que entran (positivas) o salen (negativas), 0 si no es un movimiento
+   * @param numberUnits Unidades del artículo justo después del cambio, 0 si se ha borrado
+   */
+  StockEvent(Type type, int code, int units, int numberUnits) {
+    this.type = type;
+    this.code = code;
+    this.units = units;
+    this.numberUnits = numberUnits;
+  }
+
+  /**
+   * Devuelve el tipo de cambio.
+   *
+   * @return type Tipo de cambio
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Devuelve el código del artículo.
+   *
+   * @return code Código del artículo
+   */
+  public int getCode() {
+    return code;
+  }
+
+  /**
+   * Devuelve las unidades del movimiento.
+   *
+   * @return units Unidades que entran (positivas) o salen (negativas), 0 si no es un movimiento
+   */
+  public int getUnits() {
+    return units;
+  }
+
+  /**
+   * Devuelve las unidades del artículo justo después del cambio. Como es el total y no solo el
+   * movimiento, un suscriptor que haya perdido eventos se pone al día con el siguiente evento
+   * del artículo.
+   *
+   * @return numberUnits Unidades del artículo, 0 si se ha borrado
+   */
+  public int getNumberUnits() {
+    return numberUnits;
+  }
+
+  @Override
+  public String toString() {
+    return "StockEvent [type=" + type + ", code=" + code + ", units=" + units + ", numberUnits="
+        + numberUnits + "]";
+  }
+}
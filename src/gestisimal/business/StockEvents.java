@@ -0,0 +1,78 @@
+package gestisimal.business;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publicación de los cambios del almacén a sus suscriptores.
+ *
+ * Cada suscriptor tiene un buffer acotado y recibe los eventos en su propio hilo, al ritmo que
+ * pide con {@link Flow.Subscription#request(long)}. Si un suscriptor lento llena su buffer, sus
+ * eventos nuevos se descartan y se cuentan en vez de esperar, de modo que nunca frena los
+ * cambios del almacén. Sin suscriptores, publicar no crea ningún evento.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class StockEvents {
+
+  /**
+   * Eventos pendientes como máximo por suscriptor, potencia de dos
+   */
+  static final int BUFFER = 1024;
+
+  /**
+   * Hilos que entregan los eventos, compartidos por todos los almacenes
+   */
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(task -> {
+    Thread thread = new Thread(task, "warehouse-events");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final SubmissionPublisher<StockEvent> publisher =
+      new SubmissionPublisher<>(EXECUTOR, BUFFER);
+  private final LongAdder dropped = new LongAdder();
+
+  /**
+   * Publica un cambio a los suscriptores que tengan sitio en su buffer
+   *
+   * @param type Tipo de cambio
+   * @param code Código del artículo
+   * @param units Unidades que entran (positivas) o salen (negativas)
+   * @param numberUnits Unidades del artículo justo después del cambio
+   */
+  void publish(StockEvent.Type type, int code, int units, int numberUnits) {
+    if (publisher.hasSubscribers()) {
+      publisher.offer(new StockEvent(type, code, units, numberUnits), (subscriber, event) -> {
+        dropped.increment();
+        return false;
+      });
+    }
+  }
+
+  /**
+   * Devuelve el publicador, sin dejar que los suscriptores lo cierren
+   */
+  Flow.Publisher<StockEvent> publisher() {
+    return publisher::subscribe;
+  }
+
+  /**
+   * Devuelve los eventos descartados porque el buffer de su suscriptor estaba lleno
+   */
+  long dropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * Termina la publicación: los suscriptores, también los que lleguen después, reciben
+   * onComplete
+   */
+  void close() {
+    publisher.close();
+  }
+}
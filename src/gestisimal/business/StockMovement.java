@@ -0,0 +1,54 @@
+package gestisimal.business;
+
+/**
+ * Movimiento de stock de un artículo: entrada si las unidades son positivas y salida si son
+ * negativas.
+ * 
+ * @author Maria Cervilla Alcalde
+ *
+ */
+public class StockMovement {
+
+  /**
+   * Código del artículo
+   */
+  private final int code;
+  /**
+   * Unidades que entran (positivas) o salen (negativas)
+   */
+  private final int units;
+
+  /**
+   * Crea un movimiento de stock.
+   * 
+   * @param code Código del artículo
+   * @param units Unidades que entran (positivas) o salen (negativas)
+   */
+  public StockMovement(int code, int units) {
+    this.code = code;
+    this.units = units;
+  }
+
+  /**
+   * Devuelve el código del artículo.
+   * 
+   * @return code Código del artículo
+   */
+  public int getCode() {
+    return code;
+  }
+
+  /**
+   * Devuelve las unidades del movimiento.
+   * 
+   * @return units Unidades que entran (positivas) o salen (negativas)
+   */
+  public int getUnits() {
+    return units;
+  }
+
+  @Override
+  public String toString() {
+    return "StockMovement [code=" + code + ", units=" + units + "]";
+  }
+}
@@ -0,0 +1,89 @@
+package gestisimal.business;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Diccionario de cadenas que guarda cada cadena distinta una sola vez y la identifica con un
+ * entero, en orden de llegada desde 0. Las cadenas no se borran nunca: las que dejan de usarse
+ * siguen ocupando su número.
+ *
+ * Solo las cadenas nuevas toman un cerrojo; buscar una cadena que ya está o leerla por número
+ * no lo toma.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class StringDictionary {
+
+  /**
+   * Cadenas por número; se vuelve a asignar tras cada alta para publicarla a los lectores
+   */
+  private volatile String[] values = new String[16];
+  private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+  /**
+   * Devuelve el número de una cadena, añadiéndola si no estaba
+   *
+   * @param value Cadena
+   * @return Número de la cadena
+   */
+  int idOf(String value) {
+    Integer id = ids.get(value);
+    return id != null ? id : add(value);
+  }
+
+  /**
+   * Devuelve el número de una cadena sin añadirla
+   *
+   * @param value Cadena
+   * @return Número de la cadena, o -1 si no está
+   */
+  int find(String value) {
+    Integer id = ids.get(value);
+    return id != null ? id : -1;
+  }
+
+  /**
+   * Devuelve la copia guardada de una cadena, añadiéndola si no estaba, para que las cadenas
+   * iguales compartan un solo objeto
+   *
+   * @param value Cadena
+   * @return Cadena guardada
+   */
+  String intern(String value) {
+    return valueOf(idOf(value));
+  }
+
+  /**
+   * Devuelve la cadena con un número
+   *
+   * @param id Número de la cadena
+   * @return Cadena
+   */
+  String valueOf(int id) {
+    return values[id];
+  }
+
+  /**
+   * Devuelve el número de cadenas distintas
+   *
+   * @return Número de cadenas
+   */
+  int size() {
+    return ids.size();
+  }
+
+  private synchronized int add(String value) {
+    Integer id = ids.get(value);
+    if (id == null) {
+      id = ids.size();
+      String[] grown = id == values.length ? Arrays.copyOf(values, id * 2) : values;
+      grown[id] = value;
+      values = grown;
+      ids.put(value, id);
+    }
+    return id;
+  }
+}
@@ -0,0 +1,127 @@
+package gestisimal.business;
+
+/**
+ * Valor del inventario de un almacén o de una de sus marcas en un momento dado.
+ *
+ * Si todos los precios son números exactos de céntimos, los valores se suman en céntimos y son
+ * exactos; se pueden pedir en céntimos o como {@code double}.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+public class Valuation {
+
+  /**
+   * Valoración de un inventario sin artículos
+   */
+  static final Valuation EMPTY = new Valuation(0, 0, 0, 0, 0, 0);
+
+  private final long articles;
+  private final long numberUnits;
+  private final double purchaseValue;
+  private final double sellingValue;
+  private final long purchaseCents;
+  private final long sellingCents;
+
+  /**
+   * Crea una valoración.
+   *
+   * @param articles Número de artículos
+   * @param numberUnits Unidades de todos los artículos
+   * @param purchaseValue Valor de las unidades a precio de compra
+   * @param sellingValue Valor de las unidades a precio de venta
+   * @param purchaseCents Valor a precio de compra en céntimos, o {@link Cents#NONE}
+   * @param sellingCents Valor a precio de venta en céntimos, o {@link Cents#NONE}
+   */
+  Valuation(long articles, long numberUnits, double purchaseValue, double sellingValue,
+      long purchaseCents, long sellingCents) {
+    this.articles = articles;
+    this.numberUnits = numberUnits;
+    this.purchaseValue = purchaseValue;
+    this.sellingValue = sellingValue;
+    this.purchaseCents = purchaseCents;
+    this.sellingCents = sellingCents;
+  }
+
+  /**
+   * Devuelve el número de artículos.
+   *
+   * @return articles Número de artículos
+   */
+  public long getArticles() {
+    return articles;
+  }
+
+  /**
+   * Devuelve las unidades de todos los artículos.
+   *
+   * @return numberUnits Unidades de todos los artículos
+   */
+  public long getNumberUnits() {
+    return numberUnits;
+  }
+
+  /**
+   * Devuelve el valor de las unidades a precio de compra.
+   *
+   * @return purchaseValue Valor a precio de compra
+   */
+  public double getPurchaseValue() {
+    return purchaseValue;
+  }
+
+  /**
+   * Devuelve el valor de las unidades a precio de venta.
+   *
+   * @return sellingValue Valor a precio de venta
+   */
+  public double getSellingValue() {
+    return sellingValue;
+  }
+
+  /**
+   * Devuelve el margen que se obtendría vendiendo todas las unidades.
+   *
+   * @return Valor a precio de venta menos valor a precio de compra
+   */
+  public double getMargin() {
+    return sellingValue - purchaseValue;
+  }
+
+  /**
+   * Devuelve el valor exacto de las unidades a precio de compra.
+   *
+   * @return purchaseCents Valor a precio de compra en céntimos, o {@link Cents#NONE} si algún
+   *         precio no es un número exacto de céntimos
+   */
+  public long getPurchaseValueCents() {
+    return purchaseCents;
+  }
+
+  /**
+   * Devuelve el valor exacto de las unidades a precio de venta.
+   *
+   * @return sellingCents Valor a precio de venta en céntimos, o {@link Cents#NONE} si algún
+   *         precio no es un número exacto de céntimos
+   */
+  public long getSellingValueCents() {
+    return sellingCents;
+  }
+
+  /**
+   * Devuelve el margen exacto que se obtendría vendiendo todas las unidades.
+   *
+   * @return Margen en céntimos, o {@link Cents#NONE} si algún precio no es un número exacto de
+   *         céntimos
+   */
+  public long getMarginCents() {
+    return purchaseCents == Cents.NONE ? Cents.NONE : sellingCents - purchaseCents;
+  }
+
+  @Override
+  public String toString() {
+    return "Valuation [articles=" + articles + ", numberUnits=" + numberUnits
+        + ", purchaseValue=" + purchaseValue + ", sellingValue=" + sellingValue + ", margin="
+        + getMargin() + "]";
+  }
+}
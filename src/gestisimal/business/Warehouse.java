@@ -1,8 +1,22 @@
 package gestisimal.business;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
 import org.xml.sax.SAXException;
@@ -15,21 +29,105 @@ import static gestisimal.business.WireHousePersistence.*;
  * @author Maria Cervilla Alcalde
  * 
  */
-public class Warehouse {
+public class Warehouse implements AutoCloseable {
 
 
   /**
-   * Lista de artículos
+   * Artículos indexados por código y por nombre y marca
    */
-  private List<Article> articles = new ArrayList<Article>();
+  private final ArticleStore articles;
+
+  /**
+   * Veces que tiene que caber el fichero de cambios en la copia para seguir guardando solo los
+   * cambios
+   */
+  private static final int COMPACTION_RATIO = 2;
+
+  /**
+   * Número de artículos que muestra el resumen de {@link #toString()}
+   */
+  private static final int SUMMARY_ROWS = 20;
+
+  /**
+   * Diario donde se anotan los cambios, o null si el almacén no lleva diario
+   */
+  private Journal journal;
+
+  /**
+   * Último fichero donde se guardó el almacén entero, o null si no se ha guardado
+   */
+  private Path checkpoint;
+
+  /**
+   * Artículos cambiados desde el último guardado, o null si no se ha guardado
+   */
+  private DirtyArticles dirty;
+
+  /**
+   * Guardados del almacén en fichero
+   */
+  private final SnapshotSaver saves = new SnapshotSaver();
+
+  /**
+   * Artículos por debajo de su stock de seguridad o por encima de su stock máximo
+   */
+  private final StockAlerts alerts;
+
+  /**
+   * Cambios publicados a los suscriptores de {@link #stockEvents()}
+   */
+  private final StockEvents events = new StockEvents();
+
+  /**
+   * Marcas distintas de los artículos, guardadas una sola vez y numeradas
+   */
+  private final StringDictionary brands;
+
+  /**
+   * Valor del inventario, en conjunto y por marca
+   */
+  private final InventoryValuation valuation;
+
+  /**
+   * Índices ordenados por precios, unidades, nombre y marca
+   */
+  private final ArticleIndexes indexes;
 
   /**
    * Crea un almacén vacío.
    */
-  public Warehouse() {}
+  public Warehouse() {
+    this(new ArticleTable());
+  }
+
+  /**
+   * Crea un almacén sobre el almacenamiento de artículos indicado.
+   * 
+   * @param articles Almacenamiento de artículos
+   */
+  Warehouse(ArticleStore articles) {
+    this(articles, new StringDictionary());
+  }
 
   /**
-   * Crea un almacén cargando un fichero XML o JSON
+   * Crea un almacén sobre el almacenamiento de artículos indicado, que comparte con el almacén
+   * su diccionario de marcas.
+   * 
+   * @param articles Almacenamiento de artículos
+   * @param brands Diccionario de marcas
+   */
+  Warehouse(ArticleStore articles, StringDictionary brands) {
+    this.articles = articles;
+    this.brands = brands;
+    this.alerts = new StockAlerts(articles);
+    this.valuation = new InventoryValuation(articles, brands);
+    this.indexes = new ArticleIndexes(articles);
+  }
+
+  /**
+   * Crea un almacén cargando un fichero XML o JSON. Si el fichero tiene cambios guardados con
+   * {@link #saveDelta(String)} se aplican, y si tiene diario se repiten los cambios anotados
+   * después y el almacén sigue anotando en él.
    * 
    * @param file Archivo
    * @throws IOException
@@ -37,7 +135,30 @@ public class Warehouse {
    * @throws SAXException
    */
   public Warehouse(String file) throws IOException, ParserConfigurationException, SAXException {
-    load(articles, file);
+    this(new ArticleTable(), new StringDictionary(), file);
+  }
+
+  /**
+   * Crea un almacén sobre el almacenamiento de artículos indicado, vacío, cargando un fichero
+   * como {@link #Warehouse(String)}.
+   * 
+   * @param articles Almacenamiento de artículos vacío
+   * @param brands Diccionario de marcas
+   * @param file Archivo
+   * @throws IOException
+   * @throws ParserConfigurationException
+   * @throws SAXException
+   */
+  Warehouse(ArticleStore articles, StringDictionary brands, String file)
+      throws IOException, ParserConfigurationException, SAXException {
+    this(articles, brands);
+    load(this, file);
+    DeltaFile.replay(file, this::applyDelta);
+    checkpoint = normalize(file);
+    dirty = new DirtyArticles();
+    if (Files.exists(Journal.pathOf(file))) {
+      journal = Journal.recover(file, new JournalReplayer());
+    }
   }
 
   /**
@@ -51,16 +172,27 @@ public class Warehouse {
    * @param safetyStock Nuevo stock de seguridad del artículo
    * @param maxStock Nuevo stock máximo del artículo
    * @throws PreviouslyEnteredArticleException Si el artículo ya ha sido creado anteriormente en el almacén
+   * @see #sync()
    */
   public void add(String name, String brand, int numberUnits, double purchasePrice,
       double sellingPrice, int safetyStock, int maxStock) throws PreviouslyEnteredArticleException {
-    for (Article art : articles) {
-      if (art.getName().equals(name) && art.getBrand().equals(brand)) {
-        throw new PreviouslyEnteredArticleException("Artículo anteriormente introducido.");
-      }
+    if (articles.findByNameAndBrand(name, brand) != null) {
+      throw new PreviouslyEnteredArticleException("Artículo anteriormente introducido.");
+    }
+    String stored = brand(brand);
+    Article art = articles.add(
+        new Article(name, stored, numberUnits, purchasePrice, sellingPrice, safetyStock, maxStock));
+    art.setBrandId(brands.idOf(stored));
+    alerts.update(art);
+    valuation.added(art);
+    indexes.added(art);
+    events.publish(StockEvent.Type.ADDED, art.getCode(), 0, art.getNumberUnits());
+    if (journal != null) {
+      journal.logAdd(art);
+    }
+    if (dirty != null) {
+      dirty.added(art.getCode());
     }
-    articles.add(
-        new Article(name, brand, numberUnits, purchasePrice, sellingPrice, safetyStock, maxStock));
   }
 
 
@@ -88,22 +220,42 @@ public class Warehouse {
    * @throws WarehouseArticleNotExistsException
    */
   public void remove(int code) throws WarehouseArticleNotExistsException {
-    existCode(code);
-    articles.removeIf(articles -> articles.getCode() == code);
+    Article art = find(code);
+    valuation.removed(art);
+    indexes.removed(art);
+    articles.remove(code);
+    alerts.remove(code);
+    events.publish(StockEvent.Type.REMOVED, code, 0, 0);
+    if (journal != null) {
+      journal.logRemove(code);
+    }
+    if (dirty != null) {
+      dirty.removed(code);
+    }
   }
 
 
   /**
-   * Incrementa el stock de un artículo.
+   * Incrementa el stock de un artículo. Con el diario activado, el movimiento se escribe en disco
+   * unos milisegundos después de volver; {@link #sync()} espera a que esté escrito.
    * 
    * @param code
    * @param units
    * @throws WarehouseArticleNotExistsException
    */
   public void increaseStock(int code, int units) throws WarehouseArticleNotExistsException {
-    existCode(code);
-    Article art = get(code);
-    art.addUnits(units);
+    Article art = find(code);
+    int numberUnits = art.addUnits(units);
+    alerts.update(art);
+    valuation.stock(art, units);
+    indexes.stock(art);
+    events.publish(StockEvent.Type.STOCK, code, units, numberUnits);
+    if (journal != null) {
+      journal.logStock(code, units);
+    }
+    if (dirty != null) {
+      dirty.changed(code);
+    }
   }
 
 
@@ -117,9 +269,63 @@ public class Warehouse {
    */
   public void decreaseStock(int code, int units)
       throws StockException, WarehouseArticleNotExistsException {
-    existCode(code);
-    Article art = get(code);
-    art.deleteUnits(units);
+    Article art = find(code);
+    int numberUnits = art.deleteUnits(units);
+    alerts.update(art);
+    valuation.stock(art, -units);
+    indexes.stock(art);
+    events.publish(StockEvent.Type.STOCK, code, -units, numberUnits);
+    if (journal != null) {
+      journal.logStock(code, -units);
+    }
+    if (dirty != null) {
+      dirty.changed(code);
+    }
+  }
+
+  /**
+   * Aplica un lote de movimientos de stock en una sola pasada. O se aplican todos o, si alguna
+   * salida deja el stock en negativo, se deshacen los ya aplicados y no cambia nada.
+   * 
+   * @param movements Movimientos de stock
+   * @return Unidades de cada artículo tras aplicar cada movimiento, en el orden del lote
+   * @throws StockException Si algún movimiento saca más unidades de las que hay
+   * @throws WarehouseArticleNotExistsException Si algún artículo no existe en el almacén
+   */
+  public int[] applyMovements(List<StockMovement> movements)
+      throws StockException, WarehouseArticleNotExistsException {
+    Article[] arts = new Article[movements.size()];
+    for (int i = 0; i < arts.length; i++) {
+      arts[i] = find(movements.get(i).getCode());
+    }
+    int[] result = new int[arts.length];
+    for (int i = 0; i < arts.length; i++) {
+      int units = movements.get(i).getUnits();
+      if (units >= 0) {
+        result[i] = arts[i].addUnits(units);
+      } else if ((result[i] = arts[i].tryDecrease(-units)) < 0) {
+        for (int j = i - 1; j >= 0; j--) {
+          arts[j].addUnits(-movements.get(j).getUnits());
+        }
+        throw new StockException("Stock insuficiente en el movimiento " + (i + 1) + ".");
+      }
+    }
+    for (int i = 0; i < arts.length; i++) {
+      alerts.update(arts[i]);
+      valuation.stock(arts[i], movements.get(i).getUnits());
+      indexes.stock(arts[i]);
+      events.publish(StockEvent.Type.STOCK, arts[i].getCode(), movements.get(i).getUnits(),
+          result[i]);
+    }
+    if (journal != null) {
+      journal.logMovements(movements);
+    }
+    if (dirty != null) {
+      for (StockMovement movement : movements) {
+        dirty.changed(movement.getCode());
+      }
+    }
+    return result;
   }
 
   /**
@@ -139,15 +345,20 @@ public class Warehouse {
   public void modify(int code, String name, String brand, int numberUnits, double purchasePrice,
       double sellingPrice, int safetyStock, int maxStock)
       throws WarehouseArticleNotExistsException, PreviouslyEnteredArticleException {
-    existCode(code);
-    for (Article art : articles) {
-      if (art.getName().equals(name) && art.getBrand().equals(brand) && art.getCode() != code) {
-        throw new PreviouslyEnteredArticleException(
-            "No es posible modificar el artículo porque ya se ha introducido previamente.");
-      }
+    Article art = find(code);
+    Article other = articles.findByNameAndBrand(name, brand);
+    if (other != null && other.getCode() != code) {
+      throw new PreviouslyEnteredArticleException(
+          "No es posible modificar el artículo porque ya se ha introducido previamente.");
+    }
+    update(art, name, brand, numberUnits, purchasePrice, sellingPrice, safetyStock, maxStock);
+    events.publish(StockEvent.Type.MODIFIED, code, 0, art.getNumberUnits());
+    if (journal != null) {
+      journal.logModify(art);
+    }
+    if (dirty != null) {
+      dirty.changed(code);
     }
-    Article art = articles.get(articles.indexOf(new Article(code)));
-    art.set(name, brand, numberUnits, purchasePrice, sellingPrice, safetyStock, maxStock);
   }
 
 
@@ -155,15 +366,236 @@ public class Warehouse {
    * Busca un artículo por el código
    * 
    * @param code Código del artículo
-   * @return Article Nuevo artículo
+   * @return Article Artículo con ese código, o null si no existe
    */
   public Article get(int code) {
-    return articles.get(articles.indexOf(new Article(code)));
+    return articles.get(code);
+  }
+
+
+  /**
+   * Busca un artículo por su nombre y su marca
+   * 
+   * @param name Nombre del artículo
+   * @param brand Marca del artículo
+   * @return Article Artículo con ese nombre y esa marca, o null si no existe
+   */
+  public Article findByNameAndBrand(String name, String brand) {
+    return articles.findByNameAndBrand(name, brand);
+  }
+
+
+  /**
+   * Devuelve el número de artículos del almacén
+   * 
+   * @return Número de artículos
+   */
+  public int size() {
+    return articles.size();
+  }
+
+
+  /**
+   * Comprueba si el almacén no tiene artículos
+   * 
+   * @return true si no hay artículos
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Devuelve los artículos con menos unidades que su stock de seguridad, sin recorrer el almacén
+   * salvo la primera vez que se piden avisos
+   * 
+   * @return Artículos por debajo del stock de seguridad
+   */
+  public List<Article> belowSafetyStock() {
+    return lookup(alerts.below(), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Devuelve los artículos con más unidades que su stock máximo, sin recorrer el almacén salvo
+   * la primera vez que se piden avisos. Los artículos con stock máximo 0 no tienen máximo.
+   * 
+   * @return Artículos por encima del stock máximo
+   */
+  public List<Article> aboveMaxStock() {
+    return lookup(alerts.above(), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Devuelve el valor de todo el inventario a precio de compra y de venta, sin recorrer el
+   * almacén salvo la primera vez que se pide una valoración
+   * 
+   * @return Valoración del inventario
+   */
+  public Valuation valuation() {
+    return valuation.valuation();
+  }
+
+  /**
+   * Devuelve el valor del inventario de una marca, sin recorrer el almacén salvo la primera vez
+   * que se pide una valoración
+   * 
+   * @param brand Marca
+   * @return Valoración de los artículos de la marca
+   */
+  public Valuation valuation(String brand) {
+    return valuation.valuation(brand);
+  }
+
+  /**
+   * Devuelve el valor del inventario desglosado por marca
+   * 
+   * @return Valoración de cada marca, ordenadas por marca
+   */
+  public Map<String, Valuation> valuationByBrand() {
+    return valuation.byBrand();
+  }
+
+  /**
+   * Devuelve si ya se ha pedido alguna valoración, es decir, si las siguientes no tienen que
+   * recorrer el almacén
+   */
+  boolean valuationReady() {
+    return valuation.ready();
+  }
+
+  /**
+   * Devuelve los artículos con precio de venta entre dos valores, incluidos, de más barato a más
+   * caro
+   * 
+   * @param min Precio mínimo
+   * @param max Precio máximo
+   * @return Artículos en el rango
+   */
+  public List<Article> bySellingPrice(double min, double max) {
+    return lookup(indexes.bySellingPrice(min, max), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Devuelve los artículos con precio de compra entre dos valores, incluidos, de más barato a
+   * más caro
+   * 
+   * @param min Precio mínimo
+   * @param max Precio máximo
+   * @return Artículos en el rango
+   */
+  public List<Article> byPurchasePrice(double min, double max) {
+    return lookup(indexes.byPurchasePrice(min, max), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Devuelve los artículos con unidades entre dos valores, incluidos, de menos a más unidades
+   * 
+   * @param min Unidades mínimas
+   * @param max Unidades máximas
+   * @return Artículos en el rango
+   */
+  public List<Article> byNumberUnits(int min, int max) {
+    return lookup(indexes.byNumberUnits(min, max),
+        art -> art.getNumberUnits() >= min && art.getNumberUnits() <= max, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Devuelve los artículos con más unidades, de más a menos. Con movimientos de stock a la vez,
+   * cada artículo sale una vez con las unidades que tenía al recorrerlo.
+   * 
+   * @param n Número de artículos
+   * @return Los n artículos con más unidades, o todos si hay menos
+   */
+  public List<Article> topByNumberUnits(int n) {
+    return lookup(indexes.byNumberUnitsDescending(), n);
+  }
+
+  /**
+   * Devuelve los artículos cuyo nombre empieza por un prefijo, sin distinguir mayúsculas, en
+   * orden alfabético
+   * 
+   * @param prefix Prefijo
+   * @return Artículos con ese prefijo
+   */
+  public List<Article> byNamePrefix(String prefix) {
+    return lookup(indexes.byNamePrefix(prefix), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Devuelve los artículos cuya marca empieza por un prefijo, sin distinguir mayúsculas, en
+   * orden alfabético
+   * 
+   * @param prefix Prefijo
+   * @return Artículos con ese prefijo
+   */
+  public List<Article> byBrandPrefix(String prefix) {
+    return lookup(indexes.byBrandPrefix(prefix), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Empieza una consulta sobre los artículos, que se evalúa al pedir su resultado
+   * 
+   * @return Consulta sin condiciones
+   */
+  public ArticleQuery query() {
+    return new ArticleQuery(this);
+  }
+
+  /**
+   * Recorre los artículos en orden de inserción sin copiarlos. El stream se evalúa al
+   * consumirlo, así que el almacén no debe cambiar mientras tanto; admite
+   * {@link Stream#parallel()}.
+   * 
+   * @return Stream de los artículos
+   */
+  public Stream<Article> stream() {
+    return articles.stream();
+  }
+
+  /**
+   * Devuelve el publicador de los cambios del almacén: altas, modificaciones, bajas y movimientos
+   * de stock. Cada suscriptor recibe los eventos en otro hilo y tiene un buffer de
+   * {@value StockEvents#BUFFER} eventos; si no los consume a tiempo, los eventos que no caben se
+   * descartan en lugar de frenar al almacén. Los movimientos simultáneos de un mismo artículo
+   * pueden llegar en otro orden, pero cada evento lleva las unidades que dejó su movimiento.
+   * 
+   * @return Publicador de eventos, que se completa al cerrar el almacén
+   */
+  public Flow.Publisher<StockEvent> stockEvents() {
+    return events.publisher();
+  }
+
+  /**
+   * Devuelve cuántos eventos se han descartado porque el buffer de su suscriptor estaba lleno
+   * 
+   * @return Eventos descartados
+   */
+  public long droppedStockEvents() {
+    return events.dropped();
+  }
+
+  /**
+   * Añade un receptor de los avisos de stock
+   * 
+   * @param listener Receptor
+   */
+  public void addStockAlertListener(StockAlertListener listener) {
+    alerts.addListener(listener);
+  }
+
+  /**
+   * Quita un receptor de los avisos de stock
+   * 
+   * @param listener Receptor
+   */
+  public void removeStockAlertListener(StockAlertListener listener) {
+    alerts.removeListener(listener);
   }
 
 
   /**
-   * Guarda el almacén en un fichero
+   * Guarda el almacén entero en un fichero, que pasa a ser la base de los siguientes
+   * {@link #saveDelta(String)}. Si es el fichero del diario, el diario se vacía porque la copia
+   * ya incluye sus cambios.
    * 
    * @param file Fichero
    * @throws ParserConfigurationException
@@ -172,39 +604,443 @@ public class Warehouse {
    */
   public void saveFile(String file)
       throws ParserConfigurationException, IOException, TransformerException {
-    save(articles, file);
+    saves.save(articles, file, journalOf(file));
+    checkpoint = normalize(file);
+    if (dirty == null) {
+      dirty = new DirtyArticles();
+    } else {
+      dirty.clear();
+    }
   }
 
 
   /**
-   * Comprueba la existencia del artículo en el almacén
+   * Guarda el almacén entero en un fichero en segundo plano. Se toma una copia de los artículos
+   * en el momento de la llamada y se escribe en otro hilo; si llegan más peticiones para el
+   * mismo fichero mientras esta espera, se escribe una sola vez con la copia más reciente.
+   * Hasta el siguiente {@link #saveFile(String)}, {@link #saveDelta(String)} sobre ese fichero
+   * guarda el almacén entero.
+   * 
+   * @param file Fichero
+   * @return Resultado del guardado, que termina con error si no se ha podido guardar
+   */
+  public CompletableFuture<Void> saveFileAsync(String file) {
+    List<Article> snapshot = new ArrayList<>(articles.size());
+    for (Article a : articles) {
+      snapshot.add(new Article(a.getCode(), a.getName(), a.getBrand(), a.getNumberUnits(),
+          a.getPurchasePrice(), a.getSellingPrice(), a.getSafetyStock(), a.getMaxStock()));
+    }
+    if (normalize(file).equals(checkpoint)) {
+      checkpoint = null;
+    }
+    return saves.saveAsync(snapshot, file, journalOf(file));
+  }
+
+
+  /**
+   * Guarda solo los artículos añadidos, modificados o borrados desde el último guardado,
+   * añadiéndolos a los cambios del fichero ({@code fichero.delta}). Si el fichero no es el del
+   * último guardado entero, o si sus cambios ya ocupan más de la mitad que la copia, se guarda
+   * el almacén entero con {@link #saveFile(String)}.
+   * 
+   * @param file Fichero
+   * @throws ParserConfigurationException
+   * @throws IOException
+   * @throws TransformerException
+   */
+  public void saveDelta(String file)
+      throws ParserConfigurationException, IOException, TransformerException {
+    if (dirty == null || !normalize(file).equals(checkpoint) || !Files.exists(checkpoint)
+        || DeltaFile.size(file) > Files.size(checkpoint) / COMPACTION_RATIO) {
+      saveFile(file);
+      return;
+    }
+    if (dirty.isEmpty()) {
+      return;
+    }
+    DeltaFile.append(file, dirty.removedCodes(), stored(dirty.changedCodes()),
+        stored(dirty.addedCodes()));
+    dirty.clear();
+    if (journal != null && journal.covers(file)) {
+      journal.checkpoint();
+    }
+  }
+
+
+  /**
+   * Guarda el almacén en un fichero y empieza a anotar en su diario ({@code fichero.journal})
+   * cada cambio posterior. Los cambios se escriben en disco en grupo cada pocos milisegundos, y
+   * al abrir el almacén con {@link #Warehouse(String)} se recuperan los que no estuvieran aún en
+   * la copia. Si la máquina se cae se pueden perder los cambios de esos últimos milisegundos,
+   * salvo los anteriores a una llamada a {@link #sync()}.
+   * 
+   * @param file Fichero
+   * @throws ParserConfigurationException
+   * @throws IOException
+   * @throws TransformerException
+   */
+  public void enableJournal(String file)
+      throws ParserConfigurationException, IOException, TransformerException {
+    if (journal != null) {
+      journal.close();
+      journal = null;
+    }
+    saveFile(file);
+    journal = Journal.create(file);
+  }
+
+
+  /**
+   * Escribe y fuerza a disco los cambios del diario que aún no lo estén, sin esperar al siguiente
+   * commit en grupo. No hace nada si el diario no está activado.
+   * 
+   * @throws IOException
+   */
+  public void sync() throws IOException {
+    if (journal != null) {
+      journal.flush();
+    }
+  }
+
+
+  /**
+   * Escribe en disco los cambios pendientes del diario y lo cierra
+   * 
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    events.close();
+    if (journal != null) {
+      journal.close();
+      journal = null;
+    }
+  }
+
+
+  /**
+   * Añade al almacén un artículo que ya tiene código, como los cargados de un fichero
+   * 
+   * @param article Artículo
+   * @throws ArticleIllegalErrorArgumentException Si ya existe un artículo con ese código o con
+   *         ese nombre y esa marca
+   */
+  void put(Article article) {
+    if (articles.findByNameAndBrand(article.getName(), article.getBrand()) != null) {
+      throw new ArticleIllegalErrorArgumentException("Artículo duplicado.");
+    }
+    int brandId = brands.idOf(article.getBrand());
+    article.setBrand(brands.valueOf(brandId));
+    Article art = articles.add(article);
+    if (art == null) {
+      throw new ArticleIllegalErrorArgumentException("Código de artículo duplicado.");
+    }
+    art.setBrandId(brandId);
+    alerts.update(art);
+    valuation.added(art);
+    indexes.added(art);
+  }
+
+
+  /**
+   * Devuelve la copia de una marca guardada en el diccionario del almacén, para que los
+   * artículos leídos de un fichero compartan sus marcas desde que se leen
+   * 
+   * @throws ArticleIllegalErrorArgumentException Si la marca está vacía
+   */
+  String brand(String brand) {
+    Article.throwsExceptionIfIncorrectFact(brand);
+    return brands.intern(brand);
+  }
+
+
+  /**
+   * Evalúa una consulta sobre el almacén. En {@link ConcurrentWarehouse} se evalúa bajo el
+   * cerrojo de lectura.
+   */
+  <T> T read(Supplier<T> query) {
+    return query.get();
+  }
+
+  /**
+   * Recorre los artículos para una consulta
+   */
+  Stream<Article> scan() {
+    return articles.stream();
+  }
+
+  /**
+   * Recorre para una consulta los artículos de un índice, en su orden y sin copiarlos. Un
+   * artículo que se reindexa mientras se recorre puede aparecer dos veces, así que se queda con
+   * la primera.
+   */
+  Stream<Article> indexed(Function<ArticleIndexes, Iterable<Integer>> index) {
+    return StreamSupport.stream(index.apply(indexes).spliterator(), false).distinct()
+        .map(articles::get).filter(Objects::nonNull);
+  }
+
+  /**
+   * Localiza un artículo del almacén por su código
    * 
    * @param code Código del artículo
+   * @return Artículo con ese código
    * @throws WarehouseArticleNotExistsException Si el artículo no existe
    */
-  private void existCode(int code) throws WarehouseArticleNotExistsException {
-    if (articles.contains(new Article(code))) {
-      return;
+  private Article find(int code) throws WarehouseArticleNotExistsException {
+    Article art = articles.get(code);
+    if (art == null) {
+      throw new WarehouseArticleNotExistsException("No se encuentra el artículo.");
+    }
+    return art;
+  }
+
+
+  /**
+   * Devuelve los artículos de los códigos de un aviso o un índice, en su orden y saltando los
+   * que se acaban de borrar
+   */
+  private List<Article> lookup(Iterable<Integer> codes, int limit) {
+    return lookup(codes, art -> true, limit);
+  }
+
+
+  /**
+   * Devuelve los artículos de los códigos de un aviso o un índice que siguen cumpliendo la
+   * condición del índice, en su orden. Un movimiento de stock mientras se recorre el índice de
+   * unidades puede mover un artículo por delante del recorrido, así que un artículo puede salir
+   * dos veces o con unidades fuera del rango: se queda con la primera vez y se vuelve a
+   * comprobar la condición.
+   */
+  private List<Article> lookup(Iterable<Integer> codes, Predicate<Article> accept, int limit) {
+    List<Article> found = new ArrayList<>();
+    Set<Integer> seen = new HashSet<>();
+    for (int code : codes) {
+      if (found.size() >= limit) {
+        break;
+      }
+      Article art = articles.get(code);
+      if (art != null && accept.test(art) && seen.add(code)) {
+        found.add(art);
+      }
+    }
+    return found;
+  }
+
+
+  /**
+   * Devuelve los artículos guardados con los códigos indicados
+   */
+  private List<Article> stored(List<Integer> codes) {
+    List<Article> stored = new ArrayList<>(codes.size());
+    for (int code : codes) {
+      stored.add(stored(code));
+    }
+    return stored;
+  }
+
+
+  /**
+   * Devuelve el artículo guardado con el código indicado, que tiene que existir porque lo
+   * nombra el diario o un fichero de cambios
+   */
+  private Article stored(int code) {
+    Article art = articles.get(code);
+    if (art == null) {
+      throw new ArticleIllegalErrorArgumentException(
+          "El diario o los cambios no corresponden al almacén.");
+    }
+    return art;
+  }
+
+
+  /**
+   * Aplica un bloque de cambios guardado con {@link #saveDelta(String)}. Los modificados se
+   * sacan todos del índice por nombre y marca antes de cambiarlos, porque entre ellos pueden
+   * haberse intercambiado nombres.
+   */
+  private void applyDelta(int[] removed, List<Article> changed, List<Article> added) {
+    for (int code : removed) {
+      Article art = stored(code);
+      valuation.removed(art);
+      indexes.removed(art);
+      articles.remove(code);
+      alerts.remove(code);
+    }
+    List<Article> arts = stored(changed.stream().map(Article::getCode).toList());
+    for (Article art : arts) {
+      articles.unindexNameAndBrand(art);
+      valuation.removed(art);
+      indexes.removed(art);
+    }
+    for (int i = 0; i < arts.size(); i++) {
+      Article data = changed.get(i);
+      int brandId = brands.idOf(data.getBrand());
+      arts.get(i).set(data.getName(), brands.valueOf(brandId), data.getNumberUnits(),
+          data.getPurchasePrice(), data.getSellingPrice(), data.getSafetyStock(),
+          data.getMaxStock());
+      arts.get(i).setBrandId(brandId);
+    }
+    for (Article art : arts) {
+      articles.indexNameAndBrand(art);
+      alerts.update(art);
+      valuation.added(art);
+      indexes.added(art);
+    }
+    for (Article art : added) {
+      put(art);
+    }
+  }
+
+
+  /**
+   * Devuelve el diario si es el del fichero indicado
+   */
+  private Journal journalOf(String file) {
+    return journal != null && journal.covers(file) ? journal : null;
+  }
+
+
+  private static Path normalize(String file) {
+    return Paths.get(file).toAbsolutePath().normalize();
+  }
+
+
+  /**
+   * Cambia los datos de un artículo guardado manteniendo el índice por nombre y marca y el
+   * número de la marca. Los datos se comprueban antes de tocar nada, así que si alguno es
+   * incorrecto el artículo, los índices y los totales se quedan como estaban.
+   */
+  private void update(Article art, String name, String brand, int numberUnits,
+      double purchasePrice, double sellingPrice, int safetyStock, int maxStock) {
+    Article.check(name, brand, numberUnits, purchasePrice, sellingPrice, safetyStock, maxStock);
+    String stored = brand(brand);
+    articles.unindexNameAndBrand(art);
+    valuation.removed(art);
+    indexes.removed(art);
+    art.set(name, stored, numberUnits, purchasePrice, sellingPrice, safetyStock, maxStock);
+    art.setBrandId(brands.idOf(stored));
+    articles.indexNameAndBrand(art);
+    valuation.added(art);
+    indexes.added(art);
+    alerts.update(art);
+  }
+
+
+  /**
+   * Repite sobre el almacén los cambios anotados en su diario. No pasa por los métodos públicos
+   * para no volver a anotarlos ni depender de las subclases, que aún no están construidas.
+   */
+  private class JournalReplayer implements Journal.Replayer {
+
+    @Override
+    public void add(Article article) {
+      put(article);
+      dirty.added(article.getCode());
+    }
+
+    @Override
+    public void modify(Article article) {
+      update(stored(article.getCode()), article.getName(), article.getBrand(),
+          article.getNumberUnits(), article.getPurchasePrice(), article.getSellingPrice(),
+          article.getSafetyStock(), article.getMaxStock());
+      dirty.changed(article.getCode());
+    }
+
+    @Override
+    public void remove(int code) {
+      Article art = stored(code);
+      valuation.removed(art);
+      indexes.removed(art);
+      articles.remove(code);
+      alerts.remove(code);
+      dirty.removed(code);
+    }
+
+    @Override
+    public void stock(int code, int units) {
+      Article art = stored(code);
+      art.addUnits(units);
+      alerts.update(art);
+      valuation.stock(art, units);
+      indexes.stock(art);
+      dirty.changed(code);
     }
-    throw new WarehouseArticleNotExistsException("No se encuentra el artículo.");
   }
 
 
   /**
-   * Imprime el almacén
+   * Escribe el listado de todos los artículos del almacén, una línea por artículo
+   * 
+   * @param out Destino del listado
+   * @throws IOException
+   */
+  public void report(Appendable out) throws IOException {
+    if (isEmpty()) {
+      out.append("No hay ningún artículo en el almacén\n");
+    } else {
+      report(out, 0, Integer.MAX_VALUE);
+    }
+  }
+
+
+  /**
+   * Escribe una página del listado de artículos, línea a línea y sin construir el listado
+   * entero en memoria
+   * 
+   * @param out Destino del listado
+   * @param offset Posición del primer artículo de la página
+   * @param limit Número máximo de artículos de la página
+   * @return Número de artículos escritos
+   * @throws IOException
+   */
+  public int report(Appendable out, int offset, int limit) throws IOException {
+    if (offset < 0 || limit < 0) {
+      throw new IllegalArgumentException("La página del listado no puede ser negativa.");
+    }
+    int position = 0;
+    int written = 0;
+    for (Article a : articles) {
+      if (written == limit) {
+        break;
+      }
+      if (position++ < offset) {
+        continue;
+      }
+      out.append(Integer.toString(a.getCode())).append(" \t").append(a.getName()).append('\t')
+          .append(a.getBrand()).append('\t');
+      Cents.write(out, a.getPurchaseCents(), a.getPurchasePrice());
+      out.append('\t');
+      Cents.write(out, a.getSellingCents(), a.getSellingPrice());
+      out.append('\t').append(Integer.toString(a.getNumberUnits())).append('\t')
+          .append(Integer.toString(a.getSafetyStock())).append('\t')
+          .append(Integer.toString(a.getMaxStock())).append('\n');
+      written++;
+    }
+    return written;
+  }
+
+
+  /**
+   * Resume el almacén: su número de artículos y los primeros de ellos. El listado completo se
+   * obtiene con {@link #report(Appendable)}.
    */
   @Override
   public String toString() {
-    String str = "";
-    if (articles.isEmpty()) {
+    StringBuilder str = new StringBuilder();
+    int size = size();
+    if (size == 0) {
       return "No hay ningún artículo en el almacén";
     }
-    for (Article a : articles) {
-      str += a.getCode() + " \t" + a.getName() + "\t" + a.getBrand() + "\t" + a.getPurchasePrice()
-          + "\t" + a.getSellingPrice() + "\t" + a.getNumberUnits() + "\t" + a.getSafetyStock()
-          + "\t" + a.getMaxStock() + "\n";
+    str.append("Almacén con ").append(size).append(size == 1 ? " artículo\n" : " artículos\n");
+    try {
+      int written = report(str, 0, SUMMARY_ROWS);
+      if (written < size) {
+        str.append("... y ").append(size - written).append(" más\n");
+      }
+    } catch (IOException e) {
+      throw new AssertionError(e);
     }
-    return str;
+    return str.toString();
   }
 
 
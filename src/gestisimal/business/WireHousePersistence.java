@@ -1,34 +1,40 @@
 package gestisimal.business;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
 import java.util.List;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import org.w3c.dom.Attr;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import org.xml.sax.SAXException;
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 
 /**
- * Conjunto de funciones para el guardado y recuperación de almacenes con ficheros XML y JSON
+ * Conjunto de funciones para el guardado y recuperación de almacenes con ficheros XML, JSON y
+ * copias binarias
  * 
  * @author Maria Cervilla Alcalde
  *
@@ -43,192 +49,422 @@ public class WireHousePersistence {
    * Extensión XML
    */
   private static final String XML = "xml";
+  /**
+   * Extensión de la copia binaria
+   */
+  private static final String BINARY = "bin";
+
+  /**
+   * Fábrica de lectores StAX, sin DTD ni entidades externas
+   */
+  private static final XMLInputFactory XML_INPUT = createXmlInputFactory();
+
+  /**
+   * Datos de cada artículo en un XML, todos obligatorios, en el orden de los bits con los que
+   * {@link #readXml(InputStream, UnaryOperator, Consumer)} marca los que ha leído
+   */
+  private static final List<String> XML_FIELDS = List.of("name", "brand", "units",
+      "purchasePrice", "sellingPrice", "safetyStock", "maxStock");
 
   /**
-   * Cargar artículos de un fichero XML o JSON
+   * Fábrica de escritores StAX
+   */
+  private static final XMLOutputFactory XML_OUTPUT = XMLOutputFactory.newFactory();
+
+  /**
+   * Instancia de Gson compartida, con la conversión de artículos registrada
+   */
+  private static final Gson GSON =
+      new GsonBuilder().registerTypeAdapter(Article.class, new ArticleTypeAdapter()).create();
+
+  /**
+   * Conversión de artículos a JSON
+   */
+  private static final TypeAdapter<Article> ARTICLE_ADAPTER = GSON.getAdapter(Article.class);
+
+  /**
+   * Cargar artículos de un fichero XML, JSON o binario
    * 
-   * @param articles Lista de artículos
+   * @param warehouse Almacén
    * @param file Fichero
-   * @throws ParserConfigurationException
    * @throws SAXException
    * @throws IOException
    */
-  static void load(List<Article> articles, String file)
-      throws ParserConfigurationException, SAXException, IOException {
+  static void load(Warehouse warehouse, String file) throws SAXException, IOException {
     String extensionFile = file.substring(file.lastIndexOf(".") + 1);
     errorIfTypeFileNotDeduced(extensionFile);
-    importXml(articles, file, extensionFile);
-    importJson(articles, file, extensionFile);
+    importXml(warehouse, file, extensionFile);
+    importJson(warehouse, file, extensionFile);
+    importBinary(warehouse, file, extensionFile);
+  }
+
+  /**
+   * Guardar artículos de un almacén en un fichero XML, JSON o binario. Se escriben en un fichero
+   * temporal que después sustituye al fichero de golpe, de modo que nunca se ve un fichero a
+   * medio escribir.
+   * 
+   * @param articles Artículos
+   * @param file Fichero
+   * @throws IOException
+   */
+  static void save(Iterable<Article> articles, String file) throws IOException {
+    replace(saveTemporary(articles, file), file);
   }
 
   /**
-   * Guardar artículos de un fichero XML o JSON en un almacén
+   * Guardar artículos de un almacén en un fichero temporal junto al fichero indicado, con el
+   * formato que corresponda a la extensión del fichero, y forzarlo a disco
    * 
-   * @param articles Lista de artículos
+   * @param articles Artículos
    * @param file Fichero
-   * @throws ParserConfigurationException
+   * @return Fichero temporal
    * @throws IOException
-   * @throws TransformerException
    */
-  static void save(List<Article> articles, String file)
-      throws ParserConfigurationException, IOException, TransformerException {
+  static Path saveTemporary(Iterable<Article> articles, String file) throws IOException {
     String extensionFile = file.substring(file.lastIndexOf(".") + 1);
     errorIfTypeFileNotDeduced(extensionFile);
-    exportXml(articles);
-    exportJson(articles);
+    Path target = Paths.get(file).toAbsolutePath();
+    Path temp = createTemporary(target);
+    try {
+      exportXml(articles, temp.toString(), extensionFile);
+      exportJson(articles, temp.toString(), extensionFile);
+      exportBinary(articles, temp.toString(), extensionFile);
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    return temp;
+  }
+
+  /**
+   * Crear un fichero temporal vacío junto a un fichero, para sustituirlo después con
+   * {@link #replace(Path, String)}. Se crea con los permisos del fichero que va a sustituir, o si
+   * no existe, con los que tendría al crearlo directamente, no solo para su dueño como los de
+   * {@link Files#createTempFile}.
+   * 
+   * @param target Fichero que se va a sustituir
+   * @return Fichero temporal
+   * @throws IOException
+   */
+  static Path createTemporary(Path target) throws IOException {
+    target = target.toAbsolutePath();
+    while (true) {
+      Path temp = target.resolveSibling(target.getFileName() + "."
+          + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+      try {
+        Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+            .close();
+      } catch (FileAlreadyExistsException e) {
+        continue;
+      }
+      try {
+        if (Files.exists(target)
+            && Files.getFileStore(temp).supportsFileAttributeView(PosixFileAttributeView.class)) {
+          Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+        }
+      } catch (IOException | RuntimeException e) {
+        Files.deleteIfExists(temp);
+        throw e;
+      }
+      return temp;
+    }
   }
 
   /**
-   * Cargar artículos de un fichero XML
+   * Sustituir un fichero por uno temporal ya escrito, renombrándolo de forma atómica
    * 
-   * @param articles Lista de artículos
+   * @param temp Fichero temporal
+   * @param file Fichero
+   * @throws IOException
+   */
+  static void replace(Path temp, String file) throws IOException {
+    Files.move(temp, Paths.get(file), StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Cargar artículos de un fichero XML. Los ficheros grandes se cargan en paralelo con
+   * {@link ParallelLoader}.
+   * 
+   * @param warehouse Almacén
    * @param file Fichero
    * @param extensionFile
-   * @throws ParserConfigurationException
    * @throws SAXException
    * @throws IOException
    */
-  private static void importXml(List<Article> articles, String file, String extensionFile)
-      throws ParserConfigurationException, SAXException, IOException {
-    if (extensionFile.equals(XML)) {
-      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-      DocumentBuilder builder = factory.newDocumentBuilder();
-      Document document = builder.parse(new File(file));
-
-      document.getDocumentElement().normalize();
-
-      NodeList nodes = document.getElementsByTagName("article");
-
-      for (int i = 0; i < nodes.getLength(); i++) {
-
-        Node node = nodes.item(i);
-        Element article = (Element) node;
-
-        int code = Integer.parseInt(article.getAttribute("code"));
-        String name = article.getElementsByTagName("name").item(0).getTextContent();
-        String brand = article.getElementsByTagName("brand").item(0).getTextContent();
-        int units =
-            Integer.parseInt(article.getElementsByTagName("units").item(0).getTextContent());
-        double purchasePrice = Double
-            .parseDouble(article.getElementsByTagName("purchasePrice").item(0).getTextContent());
-        double sellingPrice = Double
-            .parseDouble(article.getElementsByTagName("sellingPrice").item(0).getTextContent());
-        int safetyStock =
-            Integer.parseInt(article.getElementsByTagName("safetyStock").item(0).getTextContent());
-        int maxStock =
-            Integer.parseInt(article.getElementsByTagName("maxStock").item(0).getTextContent());
-
-        articles.add(new Article(code, name, brand, units, purchasePrice, sellingPrice, safetyStock,
-            maxStock));
+  private static void importXml(Warehouse warehouse, String file, String extensionFile)
+      throws SAXException, IOException {
+    if (extensionFile.equals(XML)
+        && !ParallelLoader.readXml(Paths.get(file), warehouse::brand, warehouse::put)) {
+      try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(file)))) {
+        readXml(in, warehouse::brand, warehouse::put);
       }
     }
   }
 
   /**
-   * Cargar artículos de un fichero JSON
+   * Lee los artículos de un XML en una sola pasada con StAX, sin construir el árbol DOM, de modo
+   * que la memoria usada no depende del tamaño del fichero. Cada marca leída se cambia por la
+   * del diccionario del almacén, para no guardar una copia por artículo.
    * 
-   * @param articles Lista de artículos
+   * @param in Entrada XML
+   * @param brands Marca guardada para cada marca leída
+   * @param sink Destino de cada artículo leído
+   * @throws SAXException Si el XML está mal formado
+   */
+  static void readXml(InputStream in, UnaryOperator<String> brands, Consumer<Article> sink)
+      throws SAXException {
+    try {
+      XMLStreamReader reader = XML_INPUT.createXMLStreamReader(in);
+      try {
+        int code = 0;
+        String name = null;
+        String brand = null;
+        int units = 0;
+        double purchasePrice = 0;
+        double sellingPrice = 0;
+        int safetyStock = 0;
+        int maxStock = 0;
+        int seen = 0;
+        while (reader.hasNext()) {
+          int event = reader.next();
+          if (event == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+              case "article":
+                code = Integer.parseInt(reader.getAttributeValue(null, "code"));
+                name = null;
+                brand = null;
+                units = 0;
+                purchasePrice = 0;
+                sellingPrice = 0;
+                safetyStock = 0;
+                maxStock = 0;
+                seen = 0;
+                break;
+              case "name":
+                name = reader.getElementText();
+                seen |= 1;
+                break;
+              case "brand":
+                brand = brands.apply(reader.getElementText());
+                seen |= 1 << 1;
+                break;
+              case "units":
+                units = Integer.parseInt(reader.getElementText());
+                seen |= 1 << 2;
+                break;
+              case "purchasePrice":
+                purchasePrice = Cents.parsePrice(reader.getElementText());
+                seen |= 1 << 3;
+                break;
+              case "sellingPrice":
+                sellingPrice = Cents.parsePrice(reader.getElementText());
+                seen |= 1 << 4;
+                break;
+              case "safetyStock":
+                safetyStock = Integer.parseInt(reader.getElementText());
+                seen |= 1 << 5;
+                break;
+              case "maxStock":
+                maxStock = Integer.parseInt(reader.getElementText());
+                seen |= 1 << 6;
+                break;
+              default:
+                break;
+            }
+          } else if (event == XMLStreamConstants.END_ELEMENT
+              && reader.getLocalName().equals("article")) {
+            if (seen != (1 << XML_FIELDS.size()) - 1) {
+              throw new SAXException("Al artículo " + code + " le falta el dato "
+                  + XML_FIELDS.get(Integer.numberOfTrailingZeros(~seen)) + ".");
+            }
+            sink.accept(new Article(code, name, brand, units, purchasePrice, sellingPrice,
+                safetyStock, maxStock));
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  /**
+   * Cargar artículos de un fichero JSON. Los ficheros grandes se cargan en paralelo con
+   * {@link ParallelLoader}.
+   * 
+   * @param warehouse Almacén
    * @param file Fichero
    * @param extensionFile
    * @throws IOException
    */
-  private static void importJson(List<Article> articles, String file, String extensionFile)
+  private static void importJson(Warehouse warehouse, String file, String extensionFile)
       throws IOException {
-    if (extensionFile.equals(JSON)) {
-      String json = Files.readString(Paths.get(file));
-      Gson gson = new Gson();
-      Type ArticlesListType = new TypeToken<ArrayList<Article>>() {}.getType();
-      articles = gson.fromJson(json, ArticlesListType);
-      return;
+    if (extensionFile.equals(JSON)
+        && !ParallelLoader.readJson(Paths.get(file), warehouse::brand, warehouse::put)) {
+      try (Reader in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+        readJson(in, warehouse::brand, warehouse::put);
+      }
+    }
+  }
+
+  /**
+   * Lee los artículos de un array JSON de uno en uno con JsonReader, sin cargar el fichero
+   * entero en memoria. Cada marca leída se cambia por la del diccionario del almacén, como en
+   * {@link #readXml(InputStream, UnaryOperator, Consumer)}.
+   * 
+   * @param in Entrada JSON
+   * @param brands Marca guardada para cada marca leída
+   * @param sink Destino de cada artículo leído
+   * @throws IOException
+   */
+  static void readJson(Reader in, UnaryOperator<String> brands, Consumer<Article> sink)
+      throws IOException {
+    JsonReader reader = GSON.newJsonReader(in);
+    reader.beginArray();
+    while (reader.hasNext()) {
+      Article article = ARTICLE_ADAPTER.read(reader);
+      article.setBrand(brands.apply(article.getBrand()));
+      sink.accept(article);
     }
+    reader.endArray();
   }
 
   /**
-   * Guardar artículos de un fichero XML en un almacén
+   * Guardar artículos de un almacén en un fichero XML
    * 
-   * @param articles Lista de artículos
-   * @throws ParserConfigurationException
+   * @param articles Artículos
+   * @param file Fichero
+   * @param extensionFile
    * @throws IOException
-   * @throws TransformerException
    */
-  private static void exportXml(List<Article> articles)
-      throws ParserConfigurationException, IOException, TransformerException {
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    DocumentBuilder builder = factory.newDocumentBuilder();
-    Document document = builder.newDocument();
+  private static void exportXml(Iterable<Article> articles, String file, String extensionFile)
+      throws IOException {
+    if (extensionFile.equals(XML)) {
+      try (Writer out = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+        writeXml(articles, out);
+      }
+    }
+  }
 
-    Element root = document.createElement("almacen");
-    document.appendChild(root);
+  /**
+   * Escribe los artículos en XML de uno en uno con StAX, sin construir el árbol DOM, de modo que
+   * la memoria usada no depende del número de artículos.
+   * 
+   * @param articles Artículos
+   * @param out Salida XML
+   * @throws IOException
+   */
+  static void writeXml(Iterable<Article> articles, Writer out) throws IOException {
+    try {
+      XMLStreamWriter writer = XML_OUTPUT.createXMLStreamWriter(out);
+      writer.writeStartDocument("UTF-8", "1.0");
+      writer.writeStartElement("almacen");
+      for (Article article : articles) {
+        writer.writeCharacters("\n");
+        writer.writeStartElement("article");
+        writer.writeAttribute("code", Integer.toString(article.getCode()));
+        writeElement(writer, "name", article.getName());
+        writeElement(writer, "brand", article.getBrand());
+        writeElement(writer, "units", Integer.toString(article.getNumberUnits()));
+        writeElement(writer, "purchasePrice", Cents.format(article.getPurchasePrice()));
+        writeElement(writer, "sellingPrice", Cents.format(article.getSellingPrice()));
+        writeElement(writer, "safetyStock", Integer.toString(article.getSafetyStock()));
+        writeElement(writer, "maxStock", Integer.toString(article.getMaxStock()));
+        writer.writeEndElement();
+      }
+      writer.writeCharacters("\n");
+      writer.writeEndElement();
+      writer.writeEndDocument();
+      writer.close();
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+  }
 
-    for (Article article : articles) {
-      // Nodo raiz
-      Element elementArt = document.createElement("article");
-      root.appendChild(elementArt);
-
-      // Atributo código
-      Attr attrCod = document.createAttribute("code");
-      attrCod.setValue(Integer.toString(article.getCode()));
-      elementArt.setAttributeNode(attrCod);
-
-      // Nodo nombre
-      Element elementName = document.createElement("name");
-      elementName.appendChild(document.createTextNode(article.getName()));
-      elementArt.appendChild(elementName);
-
-      // Nodo marca
-      Element elementBrand = document.createElement("brand");
-      elementBrand.appendChild(document.createTextNode(article.getBrand()));
-      elementArt.appendChild(elementBrand);
-
-      // Nodo numberUnits
-      Element elementNumberUnits = document.createElement("units");
-      elementNumberUnits
-          .appendChild(document.createTextNode(Integer.toString(article.getNumberUnits())));
-      elementArt.appendChild(elementNumberUnits);
-
-      // Nodo purchasePrice
-      Element elementPurchasePrice = document.createElement("purchasePrice");
-      elementPurchasePrice
-          .appendChild(document.createTextNode(Double.toString(article.getPurchasePrice())));
-      elementArt.appendChild(elementPurchasePrice);
-
-      // Nodo sellingPrice
-      Element elementSellingPrice = document.createElement("sellingPrice");
-      elementSellingPrice
-          .appendChild(document.createTextNode(Double.toString(article.getSellingPrice())));
-      elementArt.appendChild(elementSellingPrice);
-
-      // Nodo safetyStock
-      Element elementSafetyStock = document.createElement("safetyStock");
-      elementSafetyStock
-          .appendChild(document.createTextNode(Integer.toString(article.getSafetyStock())));
-      elementArt.appendChild(elementSafetyStock);
-
-      // Nodo maxStock
-      Element elementMaxStock = document.createElement("maxStock");
-      elementMaxStock.appendChild(document.createTextNode(Integer.toString(article.getMaxStock())));
-      elementArt.appendChild(elementMaxStock);
+  /**
+   * Escribe un elemento XML con texto
+   * 
+   * @param writer Escritor StAX
+   * @param name Nombre del elemento
+   * @param text Texto del elemento
+   * @throws XMLStreamException
+   */
+  private static void writeElement(XMLStreamWriter writer, String name, String text)
+      throws XMLStreamException {
+    writer.writeStartElement(name);
+    writer.writeCharacters(text);
+    writer.writeEndElement();
+  }
+
+
+  /**
+   * Guardar artículos de un almacén en un fichero JSON
+   * 
+   * @param articles Artículos
+   * @param file Fichero
+   * @param extensionFile
+   * @throws IOException
+   */
+  private static void exportJson(Iterable<Article> articles, String file, String extensionFile)
+      throws IOException {
+    if (extensionFile.equals(JSON)) {
+      try (Writer out = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+        writeJson(articles, out);
+      }
     }
+  }
 
-    TransformerFactory transformerFactory = TransformerFactory.newInstance();
-    Transformer transformer = transformerFactory.newTransformer();
-    DOMSource source = new DOMSource(document);
-    StreamResult result = new StreamResult(new FileWriter("almacen.xml"));
-    transformer.transform(source, result);
+  /**
+   * Escribe los artículos como array JSON de uno en uno con JsonWriter, sin construir la cadena
+   * JSON entera en memoria.
+   * 
+   * @param articles Artículos
+   * @param out Salida JSON
+   * @throws IOException
+   */
+  static void writeJson(Iterable<Article> articles, Writer out) throws IOException {
+    JsonWriter writer = GSON.newJsonWriter(out);
+    writer.beginArray();
+    for (Article article : articles) {
+      ARTICLE_ADAPTER.write(writer, article);
+    }
+    writer.endArray();
+    writer.flush();
   }
 
+  /**
+   * Cargar artículos de una copia binaria
+   * 
+   * @param warehouse Almacén
+   * @param file Fichero
+   * @param extensionFile
+   * @throws IOException
+   */
+  private static void importBinary(Warehouse warehouse, String file, String extensionFile)
+      throws IOException {
+    if (extensionFile.equals(BINARY)) {
+      BinarySnapshot.read(Paths.get(file), warehouse::put);
+    }
+  }
 
   /**
-   * Guardar artículos de un fichero JSON en un almacén
+   * Guardar artículos de un almacén en una copia binaria
    * 
-   * @param articles Lista de artículos
+   * @param articles Artículos
+   * @param file Fichero
+   * @param extensionFile
    * @throws IOException
    */
-  private static void exportJson(List<Article> articles) throws IOException {
-    String json = new Gson().toJson(articles);
-    BufferedWriter file = new BufferedWriter(new FileWriter("almacen.json"));
-    file.write(json);
-    file.close();
+  private static void exportBinary(Iterable<Article> articles, String file, String extensionFile)
+      throws IOException {
+    if (extensionFile.equals(BINARY)) {
+      BinarySnapshot.write(articles, Paths.get(file));
+    }
   }
 
   /**
@@ -237,9 +473,22 @@ public class WireHousePersistence {
    * @param extensionFile Extensión del fichero
    */
   private static void errorIfTypeFileNotDeduced(String extensionFile) {
-    if (!extensionFile.equals(XML) || !extensionFile.equals(JSON)) {
+    if (!extensionFile.equals(XML) && !extensionFile.equals(JSON)
+        && !extensionFile.equals(BINARY)) {
       throw new IllegalArgumentException("No se puede deducir el tipo del fichero.");
     }
   }
-}
 
+  /**
+   * Crea la fábrica de lectores StAX
+   * 
+   * @return Fábrica de lectores
+   */
+  private static XMLInputFactory createXmlInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    return factory;
+  }
+}
@@ -1,5 +1,6 @@
 package gestisimal.presentation;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.InputMismatchException;
 import java.util.Scanner;
@@ -17,6 +18,22 @@ import java.util.Scanner;
  *
  */
 public class Menu {
+
+  /**
+   * Impresión de una página de un listado
+   */
+  @FunctionalInterface
+  public interface PagePrinter {
+    /**
+     * Imprime una página
+     * 
+     * @param offset posición de la primera fila de la página
+     * @param limit número máximo de filas de la página
+     * @throws IOException si no se puede imprimir
+     */
+    void print(int offset, int limit) throws IOException;
+  }
+
   private String title;
   private String[] options;
   private Scanner in = new Scanner(System.in);
@@ -123,6 +140,39 @@ public class Menu {
     return option;
   }
 
+  /**
+   * Muestra un listado largo por páginas, esperando a que se pulse Intro entre una página y la
+   * siguiente. Por ejemplo, para el listado de un almacén:
+   * 
+   * <pre>
+   * menu.paginate(warehouse.size(), 50,
+   *     (offset, limit) -&gt; warehouse.report(System.out, offset, limit));
+   * </pre>
+   * 
+   * @param rows número total de filas del listado
+   * @param pageSize filas por página, mayor que cero
+   * @param printer imprime las filas de una página
+   * @throws IOException si no se puede imprimir alguna página
+   * @throws IllegalArgumentException si el tamaño de página no es positivo
+   */
+  public void paginate(int rows, int pageSize, PagePrinter printer) throws IOException {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("El tamaño de página tiene que ser mayor que cero.");
+    }
+    int pages = (rows + pageSize - 1) / pageSize;
+    for (int page = 0; page < pages; page++) {
+      printer.print(page * pageSize, pageSize);
+      if (page + 1 < pages) {
+        System.out.print("Página " + (page + 1) + " de " + pages
+            + ". Pulse Intro para continuar o escriba q para salir...");
+        if (in.nextLine().trim().equalsIgnoreCase("q")) {
+          break;
+        }
+      }
+    }
+    System.out.println();
+  }
+
   /**
    * Devuelve la última opción del menú
    * 
@@ -0,0 +1,173 @@
+package gestisimal.business;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Prueba de carga de {@link ConcurrentWarehouse}: muchos hilos mueven el stock de unos pocos
+ * artículos a la vez y al final cada artículo tiene que tener exactamente sus unidades iniciales
+ * más las que entraron menos las que salieron, sin unidades perdidas ni stock negativo.
+ *
+ * @author Maria Cervilla Alcalde
+ *
+ */
+class ConcurrentWarehouseStressTest {
+
+  private static final int THREADS = 8;
+  private static final int OPERATIONS = 100_000;
+  private static final int ARTICLES = 4;
+  private static final int INITIAL_UNITS = 10;
+
+  @Test
+  void increasesAndDecreasesOnSharedArticlesLoseNoUnits() throws Exception {
+    ConcurrentWarehouse warehouse = new ConcurrentWarehouse();
+    int[] codes = new int[ARTICLES];
+    for (int i = 0; i < ARTICLES; i++) {
+      warehouse.add("Artículo " + i, "Marca", INITIAL_UNITS, 1, 2);
+      codes[i] = warehouse.findByNameAndBrand("Artículo " + i, "Marca").getCode();
+    }
+    AtomicLongArray moved = new AtomicLongArray(ARTICLES);
+
+    run(() -> {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      for (int n = 0; n < OPERATIONS; n++) {
+        int i = random.nextInt(ARTICLES);
+        int units = 1 + random.nextInt(5);
+        if (random.nextBoolean()) {
+          warehouse.increaseStock(codes[i], units);
+          moved.addAndGet(i, units);
+        } else {
+          try {
+            warehouse.decreaseStock(codes[i], units);
+            moved.addAndGet(i, -units);
+          } catch (StockException e) {
+            // Sin stock suficiente no sale nada
+          }
+        }
+      }
+      return null;
+    });
+
+    for (int i = 0; i < ARTICLES; i++) {
+      assertEquals(INITIAL_UNITS + moved.get(i), warehouse.get(codes[i]).getNumberUnits(),
+          "Unidades del artículo " + codes[i]);
+    }
+    long units = 0;
+    for (int i = 0; i < ARTICLES; i++) {
+      units += INITIAL_UNITS + moved.get(i);
+    }
+    assertEquals(units, warehouse.valuation().getNumberUnits());
+  }
+
+  @Test
+  void concurrentDecreasesNeverTakeMoreThanTheStock() throws Exception {
+    int stock = THREADS * 10_000;
+    ConcurrentWarehouse warehouse = new ConcurrentWarehouse();
+    warehouse.add("Artículo", "Marca", stock, 1, 2);
+    int code = warehouse.findByNameAndBrand("Artículo", "Marca").getCode();
+    AtomicLong taken = new AtomicLong();
+
+    run(() -> {
+      while (true) {
+        try {
+          warehouse.decreaseStock(code, 1);
+          taken.incrementAndGet();
+        } catch (StockException e) {
+          return null;
+        }
+      }
+    });
+
+    assertEquals(stock, taken.get());
+    assertEquals(0, warehouse.get(code).getNumberUnits());
+  }
+
+  @Test
+  void valuationsDuringStockMovesAreNeverHalfApplied() throws Exception {
+    ConcurrentWarehouse warehouse = new ConcurrentWarehouse();
+    int[] codes = new int[ARTICLES];
+    for (int i = 0; i < ARTICLES; i++) {
+      warehouse.add("Artículo " + i, "Marca", INITIAL_UNITS, 1, 2);
+      codes[i] = warehouse.findByNameAndBrand("Artículo " + i, "Marca").getCode();
+    }
+    warehouse.valuation();
+    AtomicInteger threads = new AtomicInteger();
+
+    run(() -> {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      boolean values = threads.getAndIncrement() % 2 == 0;
+      for (int n = 0; n < OPERATIONS / 10; n++) {
+        if (values) {
+          Valuation valuation = random.nextBoolean() ? warehouse.valuation()
+              : warehouse.valuationByBrand().get("Marca");
+          assertEquals(valuation.getNumberUnits() * 100, valuation.getPurchaseValueCents());
+          assertEquals(valuation.getNumberUnits() * 200, valuation.getSellingValueCents());
+        } else {
+          warehouse.increaseStock(codes[random.nextInt(ARTICLES)], 1 + random.nextInt(5));
+        }
+      }
+      return null;
+    });
+  }
+
+  @Test
+  void listenerAddedWhileAddingArticlesSeesEveryAlert() throws Exception {
+    int perThread = 5_000;
+    ConcurrentWarehouse warehouse = new ConcurrentWarehouse();
+    AtomicInteger threads = new AtomicInteger();
+    AtomicInteger raised = new AtomicInteger();
+    StockAlertListener listener = (article, alert) -> raised.incrementAndGet();
+
+    run(() -> {
+      int t = threads.getAndIncrement();
+      for (int n = 0; n < perThread; n++) {
+        warehouse.add("Artículo " + t + "-" + n, "Marca", 0, 1, 2, 1, 10);
+        if (t == 0 && n == perThread / 2) {
+          warehouse.addStockAlertListener(listener);
+        }
+      }
+      return null;
+    });
+
+    assertEquals(THREADS * perThread, warehouse.belowSafetyStock().size());
+    // Avisan al menos los artículos que el hilo 0 añade después de registrar el receptor
+    assertTrue(raised.get() >= perThread - perThread / 2 - 1);
+    assertTrue(raised.get() < THREADS * perThread);
+  }
+
+  /**
+   * Ejecuta la tarea en todos los hilos a la vez y espera a que terminen, propagando sus errores
+   */
+  private static void run(Callable<Void> task) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<Void>> done = new ArrayList<>();
+      for (int t = 0; t < THREADS; t++) {
+        done.add(pool.submit(() -> {
+          start.await();
+          return task.call();
+        }));
+      }
+      start.countDown();
+      for (Future<Void> future : done) {
+        future.get();
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+}